@@ -3,11 +3,148 @@
 
 #include <fbjni/fbjni.h>
 
+#include <algorithm>
+#include <memory>
+#include <mutex>
+#include <string>
+#include <unordered_map>
+#include <vector>
+
 using namespace facebook;
 
 namespace expensify {
 namespace livemarkdown {
-  jni::local_ref<jni::JString> MarkdownParser::nativeParse(
+
+  namespace {
+    // Each range is packed as: type id, start, length, depth, table column,
+    // table alignment id, table column count.
+    constexpr int kRangeFieldCount = 7;
+
+    // Staging buffers are reused between calls, but one grown past this by a huge text or batch is
+    // released instead of being kept for the lifetime of the thread.
+    constexpr size_t kMaxRetainedBufferBytes = 1024 * 1024;
+
+    template <typename T>
+    void releaseIfOversized(std::vector<T> &buffer) {
+      if (buffer.capacity() * sizeof(T) > kMaxRetainedBufferBytes) {
+        buffer.clear();
+        buffer.shrink_to_fit();
+      }
+    }
+
+    using RangeTypeIds = std::unordered_map<std::string, jint>;
+
+    // Ids of MarkdownRangeType names, replaced as a whole by nativeSetRangeTypes.
+    std::mutex rangeTypeIdsMutex;
+    std::shared_ptr<const RangeTypeIds> rangeTypeIds = std::make_shared<const RangeTypeIds>();
+
+    std::shared_ptr<const RangeTypeIds> getRangeTypeIds() {
+      std::lock_guard<std::mutex> lock(rangeTypeIdsMutex);
+      return rangeTypeIds;
+    }
+
+    // Must match TABLE_ALIGNMENT_* in MarkdownRanges.java, 0 means no alignment.
+    jint getTableAlignmentId(jsi::Runtime &rt, const jsi::Value &value) {
+      if (!value.isString()) {
+        return 0;
+      }
+      const auto alignment = value.getString(rt).utf8(rt);
+      if (alignment == "left") {
+        return 1;
+      }
+      if (alignment == "center") {
+        return 2;
+      }
+      if (alignment == "right") {
+        return 3;
+      }
+      return 0;
+    }
+
+    jint getIntOrDefault(const jsi::Value &value, const jint defaultValue) {
+      return value.isNumber() ? static_cast<jint>(value.getNumber()) : defaultValue;
+    }
+
+    [[noreturn]] void throwSchemaError(const char *message) {
+      jni::throwNewJavaException("java/lang/IllegalArgumentException", "%s", message);
+    }
+
+    void packRanges(jsi::Runtime &rt, const jsi::Value &output, std::vector<jint> &packed) {
+      if (!output.isObject() || !output.getObject(rt).isArray(rt)) {
+        throwSchemaError("Parser output is not an array");
+      }
+      const auto ranges = output.getObject(rt).getArray(rt);
+      const auto length = ranges.size(rt);
+
+      const auto typeProp = jsi::PropNameID::forAscii(rt, "type");
+      const auto startProp = jsi::PropNameID::forAscii(rt, "start");
+      const auto lengthProp = jsi::PropNameID::forAscii(rt, "length");
+      const auto depthProp = jsi::PropNameID::forAscii(rt, "depth");
+      const auto tableColumnProp = jsi::PropNameID::forAscii(rt, "tableColumn");
+      const auto tableAlignmentProp = jsi::PropNameID::forAscii(rt, "tableAlignment");
+      const auto tableColumnCountProp = jsi::PropNameID::forAscii(rt, "tableColumnCount");
+
+      // Ranges are packed against a single snapshot even if types are registered meanwhile
+      const auto rangeTypeIds = getRangeTypeIds();
+      // Batches append ranges of many texts, so the buffer grows geometrically
+      const auto requiredSize = packed.size() + length * kRangeFieldCount;
+      if (requiredSize > packed.capacity()) {
+        packed.reserve(std::max(requiredSize, packed.capacity() * 2));
+      }
+
+      for (size_t i = 0; i < length; i++) {
+        const auto rangeValue = ranges.getValueAtIndex(rt, i);
+        if (!rangeValue.isObject()) {
+          throwSchemaError("Range is not an object");
+        }
+        const auto range = rangeValue.getObject(rt);
+
+        const auto type = range.getProperty(rt, typeProp);
+        const auto start = range.getProperty(rt, startProp);
+        const auto rangeLength = range.getProperty(rt, lengthProp);
+        if (!type.isString() || !start.isNumber() || !rangeLength.isNumber()) {
+          throwSchemaError("Range must have string `type` and numeric `start` and `length`");
+        }
+
+        // Unknown types have no styling, skip them instead of sending them to Java
+        const auto typeId = rangeTypeIds->find(type.getString(rt).utf8(rt));
+        if (typeId == rangeTypeIds->end()) {
+          continue;
+        }
+
+        packed.push_back(typeId->second);
+        packed.push_back(static_cast<jint>(start.getNumber()));
+        packed.push_back(static_cast<jint>(rangeLength.getNumber()));
+        packed.push_back(getIntOrDefault(range.getProperty(rt, depthProp), 1));
+        packed.push_back(getIntOrDefault(range.getProperty(rt, tableColumnProp), -1));
+        packed.push_back(getTableAlignmentId(rt, range.getProperty(rt, tableAlignmentProp)));
+        packed.push_back(getIntOrDefault(range.getProperty(rt, tableColumnCountProp), 0));
+      }
+    }
+
+    // Offsets returned by the worklet are in UTF-16 code units, the same as in Java strings.
+    jsi::String createInputString(jsi::Runtime &rt, jni::alias_ref<jni::JString> text) {
+#if REACT_NATIVE_MINOR_VERSION >= 78
+      // Copies UTF-16 code units straight into the runtime instead of transcoding to UTF-8
+      // and back. They're copied out of the Java string first, as creating the JS string
+      // allocates on the JS heap, which must not happen while a critical region is held.
+      JNIEnv *env = jni::Environment::current();
+      const auto jText = static_cast<jstring>(text.get());
+      const auto length = static_cast<size_t>(env->GetStringLength(jText));
+      thread_local std::vector<jchar> chars;
+      chars.resize(length);
+      env->GetStringRegion(jText, 0, static_cast<jsize>(length), chars.data());
+      jni::throwPendingJniExceptionAsCppException();
+      auto input = jsi::String::createFromUtf16(rt, reinterpret_cast<const char16_t *>(chars.data()), length);
+      releaseIfOversized(chars);
+      return input;
+#else
+      return jsi::String::createFromUtf8(rt, text->toStdString());
+#endif
+    }
+  } // namespace
+
+  jni::local_ref<jni::JArrayInt> MarkdownParser::nativeParse(
       jni::alias_ref<jhybridobject> jThis,
       jni::alias_ref<jni::JString> text,
       const int parserId) {
@@ -16,16 +153,65 @@ namespace livemarkdown {
 
     const auto markdownWorklet = expensify::livemarkdown::getMarkdownWorklet(parserId);
 
-    const auto input = jsi::String::createFromUtf8(rt, text->toStdString());
+    const auto input = createInputString(rt, text);
     const auto output = markdownRuntime->runGuarded(markdownWorklet, input);
 
-    const auto json = rt.global().getPropertyAsObject(rt, "JSON").getPropertyAsFunction(rt, "stringify").call(rt, output).asString(rt).utf8(rt);
-    return jni::make_jstring(json);
+    // Reused between calls so that steady-state parsing doesn't allocate the staging buffer
+    thread_local std::vector<jint> packed;
+    packed.clear();
+    packRanges(rt, output, packed);
+
+    auto result = jni::JArrayInt::newArray(packed.size());
+    result->setRegion(0, packed.size(), packed.data());
+    releaseIfOversized(packed);
+    return result;
+  }
+
+  jni::local_ref<jni::JArrayInt> MarkdownParser::nativeParseBatch(
+      jni::alias_ref<jhybridobject> jThis,
+      jni::alias_ref<jni::JArrayClass<jni::JString>> texts,
+      const int parserId) {
+    const auto markdownRuntime = expensify::livemarkdown::getMarkdownRuntime();
+    jsi::Runtime &rt = markdownRuntime->getJSIRuntime();
+
+    const auto markdownWorklet = expensify::livemarkdown::getMarkdownWorklet(parserId);
+
+    // The range count of each text comes first, followed by the ranges of all texts
+    const auto size = texts->size();
+    thread_local std::vector<jint> packed;
+    packed.assign(size, 0);
+    for (size_t i = 0; i < size; i++) {
+      const auto input = createInputString(rt, texts->getElement(i));
+      const auto output = markdownRuntime->runGuarded(markdownWorklet, input);
+      const auto packedSize = packed.size();
+      packRanges(rt, output, packed);
+      packed[i] = static_cast<jint>((packed.size() - packedSize) / kRangeFieldCount);
+    }
+
+    auto result = jni::JArrayInt::newArray(packed.size());
+    result->setRegion(0, packed.size(), packed.data());
+    releaseIfOversized(packed);
+    return result;
+  }
+
+  void MarkdownParser::nativeSetRangeTypes(
+      jni::alias_ref<jclass> jClass,
+      jni::alias_ref<jni::JArrayClass<jni::JString>> rangeTypes) {
+    auto ids = std::make_shared<RangeTypeIds>();
+    const auto size = rangeTypes->size();
+    for (size_t i = 0; i < size; i++) {
+      ids->emplace(rangeTypes->getElement(i)->toStdString(), static_cast<jint>(i));
+    }
+
+    std::lock_guard<std::mutex> lock(rangeTypeIdsMutex);
+    rangeTypeIds = std::move(ids);
   }
 
   void MarkdownParser::registerNatives() {
     registerHybrid({
-        makeNativeMethod("nativeParse", MarkdownParser::nativeParse)});
+        makeNativeMethod("nativeParse", MarkdownParser::nativeParse),
+        makeNativeMethod("nativeParseBatch", MarkdownParser::nativeParseBatch),
+        makeNativeMethod("nativeSetRangeTypes", MarkdownParser::nativeSetRangeTypes)});
   }
 
 } // namespace livemarkdown
@@ -19,13 +19,22 @@ namespace livemarkdown {
                         public jsi::HostObject {
   public:
     static constexpr auto kJavaDescriptor =
-        "Lcom/expensify/livemarkdown/MarkdownParser;";
+        "Lcom/expensify/livemarkdown/WorkletMarkdownParserEngine;";
 
-    static jni::local_ref<jni::JString> nativeParse(
+    static jni::local_ref<jni::JArrayInt> nativeParse(
         jni::alias_ref<jhybridobject> jThis,
         jni::alias_ref<jni::JString> text,
         const int parserId);
 
+    static jni::local_ref<jni::JArrayInt> nativeParseBatch(
+        jni::alias_ref<jhybridobject> jThis,
+        jni::alias_ref<jni::JArrayClass<jni::JString>> texts,
+        const int parserId);
+
+    static void nativeSetRangeTypes(
+        jni::alias_ref<jclass> jClass,
+        jni::alias_ref<jni::JArrayClass<jni::JString>> rangeTypes);
+
     static void registerNatives();
 
   private:
@@ -0,0 +1,729 @@
+package com.expensify.livemarkdown;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Port of `parseMarkdown` from `src/parser/index.ts` that runs directly on the calling thread,
+ * without the worklet runtime. It must produce the same ranges as the JS parser, so any change
+ * to the JS parser has to be mirrored here. Both are checked against the cases in
+ * `src/__tests__/parserParity.fixtures.json`.
+ */
+public class JavaMarkdownParserEngine implements MarkdownParserEngine {
+  private static final int MAX_PARSABLE_LENGTH = 500000;
+
+  private static class Range {
+    private final int mTypeId;
+    private final int mStart;
+    private final int mLength;
+    private int mDepth;
+
+    Range(int typeId, int start, int length, int depth) {
+      mTypeId = typeId;
+      mStart = start;
+      mLength = length;
+      mDepth = depth;
+    }
+  }
+
+  @Override
+  public void parse(@NonNull String text, int parserId, @NonNull MarkdownRanges markdownRanges) {
+    if (text.isEmpty() || text.length() > MAX_PARSABLE_LENGTH) {
+      return;
+    }
+
+    List<Range> ranges = new ArrayList<>();
+    parseBlocks(text, ranges);
+    parseInlines(text, ranges);
+    groupRanges(sortRanges(ranges), markdownRanges);
+  }
+
+  private static void parseBlocks(@NonNull String markdown, @NonNull List<Range> ranges) {
+    List<String> lines = splitLines(markdown);
+    int pos = 0;
+    boolean inCodeBlock = false;
+    int codeBlockStart = 0;
+    char codeBlockFence = 0;
+    int codeBlockFenceLength = 0;
+
+    for (int lineIdx = 0; lineIdx < lines.size(); lineIdx++) {
+      String line = lines.get(lineIdx);
+      int lineStart = pos;
+      int lineEnd = pos + line.length();
+      boolean isLastLine = lineIdx == lines.size() - 1;
+
+      int fenceIndent = countLeading(line, 0, ' ');
+      int fenceLength = fenceIndent < line.length() ? countLeading(line, fenceIndent, line.charAt(fenceIndent)) : 0;
+      if (fenceIndent <= 3 && fenceLength >= 3 && (line.charAt(fenceIndent) == '`' || line.charAt(fenceIndent) == '~') && !hasLineTerminator(line, fenceIndent + fenceLength)) {
+        char fence = line.charAt(fenceIndent);
+        int fenceLineLength = isLastLine ? line.length() : line.length() + 1;
+        if (!inCodeBlock) {
+          inCodeBlock = true;
+          codeBlockStart = lineStart;
+          codeBlockFence = fence;
+          // The JS parser compares against the first fence character only
+          codeBlockFenceLength = 1;
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, lineStart, fenceLineLength, 1));
+        } else if (fence == codeBlockFence && fenceLength >= codeBlockFenceLength) {
+          int preLength = isLastLine ? lineEnd - codeBlockStart : lineEnd - codeBlockStart + 1;
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, lineStart, fenceLineLength, 1));
+          ranges.add(new Range(MarkdownRangeType.PRE, codeBlockStart, preLength, 1));
+          inCodeBlock = false;
+          codeBlockFence = 0;
+        }
+        pos = lineEnd + 1;
+        continue;
+      }
+
+      if (inCodeBlock) {
+        pos = lineEnd + 1;
+        continue;
+      }
+
+      boolean isPotentialList = matchListMarker(line) != -1;
+
+      if (isIndentedCodeLine(line) && !isPotentialList) {
+        int blockStart = lineStart;
+        int blockEndIdx = lineIdx;
+        int blockEndLineEnd = lineEnd;
+
+        int indentLength = getIndentSyntaxLength(line);
+        if (indentLength > 0) {
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, lineStart, indentLength, 1));
+        }
+
+        int scanIdx = lineIdx;
+        int scanLineEnd = lineEnd;
+        while (scanIdx + 1 < lines.size()) {
+          int nextIdx = scanIdx + 1;
+          String nextLine = lines.get(nextIdx);
+          int nextLineStart = scanLineEnd + 1;
+          int nextLineEnd = nextLineStart + nextLine.length();
+
+          if (isIndentedCodeLine(nextLine)) {
+            int nextIndentLength = getIndentSyntaxLength(nextLine);
+            if (nextIndentLength > 0) {
+              ranges.add(new Range(MarkdownRangeType.SYNTAX, nextLineStart, nextIndentLength, 1));
+            }
+            blockEndIdx = nextIdx;
+            blockEndLineEnd = nextLineEnd;
+            scanIdx = nextIdx;
+            scanLineEnd = nextLineEnd;
+            continue;
+          }
+
+          if (isBlankLine(nextLine) && hasFollowingIndentedLine(lines, nextIdx + 1)) {
+            blockEndIdx = nextIdx;
+            blockEndLineEnd = nextLineEnd;
+            scanIdx = nextIdx;
+            scanLineEnd = nextLineEnd;
+            continue;
+          }
+
+          break;
+        }
+
+        int blockLength = blockEndIdx < lines.size() - 1 ? blockEndLineEnd - blockStart + 1 : blockEndLineEnd - blockStart;
+        ranges.add(new Range(MarkdownRangeType.PRE, blockStart, blockLength, 1));
+
+        lineIdx = blockEndIdx;
+        pos = blockEndLineEnd + 1;
+        continue;
+      }
+
+      // /^( {0,3})(#{1,6})[ \t]+(.*)$/
+      int headingIndent = countLeading(line, 0, ' ');
+      int hashes = countLeading(line, headingIndent, '#');
+      if (headingIndent <= 3 && hashes >= 1 && hashes <= 6 && isSpaceOrTab(line, headingIndent + hashes) && !hasLineTerminator(line, headingIndent + hashes)) {
+        ranges.add(new Range(MarkdownRangeType.SYNTAX, lineStart + headingIndent, hashes + 1, 1));
+
+        int contentStart = lineStart + headingIndent + hashes + 1;
+        int contentLength = isLastLine ? lineEnd - contentStart : lineEnd - contentStart + 1;
+        if (contentLength > 0) {
+          ranges.add(new Range(MarkdownRangeType.H1 + hashes - 1, contentStart, contentLength, 1));
+        }
+        pos = lineEnd + 1;
+        continue;
+      }
+
+      // /^( {0,3})((?:>[ ]?)+)/
+      int quoteIndent = countLeading(line, 0, ' ');
+      if (quoteIndent <= 3 && quoteIndent < line.length() && line.charAt(quoteIndent) == '>') {
+        int depth = 0;
+        int markerEnd = quoteIndent;
+        while (markerEnd < line.length() && line.charAt(markerEnd) == '>') {
+          depth++;
+          markerEnd++;
+          if (markerEnd < line.length() && line.charAt(markerEnd) == ' ') {
+            markerEnd++;
+          }
+        }
+        ranges.add(new Range(MarkdownRangeType.BLOCKQUOTE_MARKER, lineStart, markerEnd, 1));
+        int rangeLength = isLastLine ? line.length() : line.length() + 1;
+        ranges.add(new Range(MarkdownRangeType.BLOCKQUOTE, lineStart, rangeLength, depth));
+        pos = lineEnd + 1;
+        continue;
+      }
+
+      int indent = countSpacesAndTabs(line, 0);
+
+      // /^([ \t]*)(\d{1,9})([.)])[ \t]+\[([ xX])\][ \t]+/
+      int digits = countDigits(line, indent);
+      if (digits >= 1 && digits <= 9 && isListPunctuation(line, indent + digits)) {
+        int bracketStart = indent + digits + 1 + countSpacesAndTabs(line, indent + digits + 1);
+        int fullMatchLen = matchTaskBox(line, indent + digits + 1);
+        if (fullMatchLen != -1) {
+          boolean isChecked = line.charAt(bracketStart + 1) != ' ';
+          int markerStart = lineStart + indent;
+
+          ranges.add(new Range(MarkdownRangeType.LIST_NUMBER, markerStart, digits + 1, 1));
+          ranges.add(new Range(isChecked ? MarkdownRangeType.TASK_CHECKED : MarkdownRangeType.TASK_UNCHECKED, lineStart + bracketStart, fullMatchLen - bracketStart, 1));
+
+          int contentStart = lineStart + fullMatchLen;
+          int contentLength = lineEnd - contentStart;
+          if (contentLength > 0 && isChecked) {
+            ranges.add(new Range(MarkdownRangeType.TASK_CONTENT_CHECKED, contentStart, contentLength, 1));
+          }
+
+          pos = lineEnd + 1;
+          continue;
+        }
+      }
+
+      // /^([ \t]*)([-*+])[ \t]+\[([ xX])\][ \t]+/
+      if (isBulletMarker(line, indent)) {
+        int fullMatchLen = matchTaskBox(line, indent + 1);
+        if (fullMatchLen != -1) {
+          int bracketStart = indent + 1 + countSpacesAndTabs(line, indent + 1);
+          boolean isChecked = line.charAt(bracketStart + 1) != ' ';
+
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, lineStart, fullMatchLen, 1));
+          ranges.add(new Range(isChecked ? MarkdownRangeType.TASK_CHECKED : MarkdownRangeType.TASK_UNCHECKED, lineStart, fullMatchLen, 1));
+          int contentStart = lineStart + fullMatchLen;
+          int contentLength = lineEnd - contentStart;
+          if (contentLength > 0 && isChecked) {
+            ranges.add(new Range(MarkdownRangeType.TASK_CONTENT_CHECKED, contentStart, contentLength, 1));
+          }
+          pos = lineEnd + 1;
+          continue;
+        }
+      }
+
+      // /^([ \t]*)([-*+])[ \t]+/
+      if (isBulletMarker(line, indent) && isSpaceOrTab(line, indent + 1)) {
+        int matchLength = indent + 1 + countSpacesAndTabs(line, indent + 1);
+        int markerStart = lineStart + indent;
+        ranges.add(new Range(MarkdownRangeType.SYNTAX, markerStart, matchLength - indent, 1));
+        ranges.add(new Range(MarkdownRangeType.LIST_BULLET, markerStart, 1, 1));
+        pos = lineEnd + 1;
+        continue;
+      }
+
+      // /^([ \t]*)(\d{1,9})([.)])[ \t]+/
+      if (digits >= 1 && digits <= 9 && isListPunctuation(line, indent + digits) && isSpaceOrTab(line, indent + digits + 1)) {
+        int matchLength = indent + digits + 1 + countSpacesAndTabs(line, indent + digits + 1);
+        int markerStart = lineStart + indent;
+        ranges.add(new Range(MarkdownRangeType.SYNTAX, markerStart, matchLength - indent, 1));
+        ranges.add(new Range(MarkdownRangeType.LIST_NUMBER, markerStart, digits + 1, 1));
+        pos = lineEnd + 1;
+        continue;
+      }
+
+      pos = lineEnd + 1;
+    }
+  }
+
+  private static void parseInlines(@NonNull String markdown, @NonNull List<Range> ranges) {
+    List<int[]> skipRanges = new ArrayList<>();
+    for (Range range : ranges) {
+      if (range.mTypeId == MarkdownRangeType.PRE || range.mTypeId == MarkdownRangeType.LIST_BULLET || range.mTypeId == MarkdownRangeType.LIST_NUMBER) {
+        skipRanges.add(new int[]{range.mStart, range.mStart + range.mLength});
+      }
+    }
+    Collections.sort(skipRanges, (a, b) -> Integer.compare(a[0], b[0]));
+
+    int length = markdown.length();
+    int skipRangeIdx = 0;
+    int i = 0;
+    while (i < length) {
+      char c = markdown.charAt(i);
+
+      while (skipRangeIdx < skipRanges.size() && skipRanges.get(skipRangeIdx)[1] <= i) {
+        skipRangeIdx++;
+      }
+      if (skipRangeIdx < skipRanges.size() && i >= skipRanges.get(skipRangeIdx)[0] && i < skipRanges.get(skipRangeIdx)[1]) {
+        i++;
+        continue;
+      }
+
+      if (c == '`') {
+        int openCount = 0;
+        int j = i;
+        while (j < length && markdown.charAt(j) == '`') {
+          openCount++;
+          j++;
+        }
+
+        String closePattern = repeat('`', openCount);
+        int searchPos = j;
+        boolean found = false;
+        while (searchPos < length) {
+          int closeIndex = markdown.indexOf(closePattern, searchPos);
+          if (closeIndex == -1) {
+            break;
+          }
+
+          int closeEnd = closeIndex + openCount;
+          while (closeEnd < length && markdown.charAt(closeEnd) == '`') {
+            closeEnd++;
+          }
+
+          if (closeEnd - closeIndex == openCount) {
+            ranges.add(new Range(MarkdownRangeType.SYNTAX, i, openCount, 1));
+            ranges.add(new Range(MarkdownRangeType.CODE, j, closeIndex - j, 1));
+            ranges.add(new Range(MarkdownRangeType.SYNTAX, closeIndex, openCount, 1));
+            i = closeEnd;
+            found = true;
+            break;
+          }
+          searchPos = closeEnd;
+        }
+
+        if (found) {
+          continue;
+        }
+      }
+
+      if ((c == '*' || c == '_') && i + 2 < length && markdown.charAt(i + 1) == c && markdown.charAt(i + 2) == c) {
+        int contentStart = i + 3;
+        int closeIndex = markdown.indexOf(repeat(c, 3), contentStart);
+
+        if (closeIndex != -1 && closeIndex > contentStart) {
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, i, 3, 1));
+          ranges.add(new Range(MarkdownRangeType.BOLD, contentStart, closeIndex - contentStart, 1));
+          ranges.add(new Range(MarkdownRangeType.ITALIC, contentStart, closeIndex - contentStart, 1));
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, closeIndex, 3, 1));
+          i = closeIndex + 3;
+          continue;
+        }
+      }
+
+      if ((c == '*' || c == '_') && i + 1 < length && markdown.charAt(i + 1) == c) {
+        int contentStart = i + 2;
+        int closeIndex = markdown.indexOf(repeat(c, 2), contentStart);
+
+        if (closeIndex != -1 && closeIndex > contentStart && markdown.charAt(closeIndex - 1) != c) {
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, i, 2, 1));
+          ranges.add(new Range(MarkdownRangeType.BOLD, contentStart, closeIndex - contentStart, 1));
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, closeIndex, 2, 1));
+          parseNestedItalics(markdown, contentStart, closeIndex, ranges);
+          i = closeIndex + 2;
+          continue;
+        }
+      }
+
+      if (c == '*' || c == '_') {
+        int contentStart = i + 1;
+        int closeIndex = -1;
+        for (int k = contentStart; k < length; k++) {
+          if (markdown.charAt(k) == c) {
+            if (k + 1 < length && markdown.charAt(k + 1) == c) {
+              k++;
+              continue;
+            }
+            closeIndex = k;
+            break;
+          }
+        }
+
+        if (closeIndex != -1 && closeIndex > contentStart) {
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, i, 1, 1));
+          ranges.add(new Range(MarkdownRangeType.ITALIC, contentStart, closeIndex - contentStart, 1));
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, closeIndex, 1, 1));
+          i = closeIndex + 1;
+          continue;
+        }
+      }
+
+      if (c == '~' && i + 1 < length && markdown.charAt(i + 1) == '~') {
+        int contentStart = i + 2;
+        int closeIndex = -1;
+        for (int k = contentStart; k < length - 1; k++) {
+          if (markdown.charAt(k) == '~' && markdown.charAt(k + 1) == '~') {
+            closeIndex = k;
+            break;
+          }
+        }
+        if (closeIndex != -1 && closeIndex > contentStart) {
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, i, 2, 1));
+          ranges.add(new Range(MarkdownRangeType.STRIKETHROUGH, contentStart, closeIndex - contentStart, 1));
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, closeIndex, 2, 1));
+          parseNestedStrikethroughContent(markdown, contentStart, closeIndex, ranges);
+          i = closeIndex + 2;
+          continue;
+        }
+      }
+
+      if (c == '[') {
+        int bracketDepth = 1;
+        int j = i + 1;
+        while (j < length && bracketDepth > 0) {
+          if (markdown.charAt(j) == '[') {
+            bracketDepth++;
+          } else if (markdown.charAt(j) == ']') {
+            bracketDepth--;
+          }
+          j++;
+        }
+
+        if (bracketDepth == 0 && j < length && markdown.charAt(j) == '(') {
+          int labelEnd = j - 1;
+          int labelStart = i + 1;
+          int labelLength = labelEnd - labelStart;
+          j++;
+
+          int parenDepth = 1;
+          while (j < length && parenDepth > 0) {
+            if (markdown.charAt(j) == '(') {
+              parenDepth++;
+            } else if (markdown.charAt(j) == ')') {
+              parenDepth--;
+            }
+            j++;
+          }
+
+          if (parenDepth == 0) {
+            int urlEnd = j - 1;
+            ranges.add(new Range(MarkdownRangeType.SYNTAX, i, 1, 1));
+            if (labelLength > 0) {
+              ranges.add(new Range(MarkdownRangeType.LINK, labelStart, labelLength, 1));
+            }
+            ranges.add(new Range(MarkdownRangeType.SYNTAX, labelEnd, urlEnd - labelEnd + 1, 1));
+            i = j;
+            continue;
+          }
+        }
+      }
+
+      if (c == '!' && i + 1 < length && markdown.charAt(i + 1) == '[') {
+        int bracketDepth = 1;
+        int j = i + 2;
+        while (j < length && bracketDepth > 0) {
+          if (markdown.charAt(j) == '[') {
+            bracketDepth++;
+          } else if (markdown.charAt(j) == ']') {
+            bracketDepth--;
+          }
+          j++;
+        }
+
+        if (bracketDepth == 0 && j < length && markdown.charAt(j) == '(') {
+          int labelEnd = j - 1;
+          j++;
+          int urlStart = j;
+
+          int parenDepth = 1;
+          while (j < length && parenDepth > 0) {
+            if (markdown.charAt(j) == '(') {
+              parenDepth++;
+            } else if (markdown.charAt(j) == ')') {
+              parenDepth--;
+            }
+            j++;
+          }
+
+          if (parenDepth == 0) {
+            int urlEnd = j - 1;
+            ranges.add(new Range(MarkdownRangeType.INLINE_IMAGE, i, j - i, 1));
+            ranges.add(new Range(MarkdownRangeType.SYNTAX, i, 2, 1));
+            ranges.add(new Range(MarkdownRangeType.SYNTAX, labelEnd, 2, 1));
+            ranges.add(new Range(MarkdownRangeType.LINK, urlStart, urlEnd - urlStart, 1));
+            ranges.add(new Range(MarkdownRangeType.SYNTAX, urlEnd, 1, 1));
+            i = j;
+            continue;
+          }
+        }
+      }
+
+      i++;
+    }
+  }
+
+  /**
+   * Italic runs inside bold content, offsets of `contentStart..contentEnd` are absolute.
+   */
+  private static void parseNestedItalics(@NonNull String markdown, int contentStart, int contentEnd, @NonNull List<Range> ranges) {
+    int j = contentStart;
+    while (j < contentEnd) {
+      int closeItalic = findNestedItalicEnd(markdown, j, contentEnd);
+      if (closeItalic != -1) {
+        ranges.add(new Range(MarkdownRangeType.SYNTAX, j, 1, 1));
+        ranges.add(new Range(MarkdownRangeType.ITALIC, j + 1, closeItalic - j - 1, 1));
+        ranges.add(new Range(MarkdownRangeType.SYNTAX, closeItalic, 1, 1));
+        j = closeItalic + 1;
+        continue;
+      }
+      j++;
+    }
+  }
+
+  /**
+   * Bold and italic runs inside strikethrough content, offsets of `contentStart..contentEnd` are absolute.
+   */
+  private static void parseNestedStrikethroughContent(@NonNull String markdown, int contentStart, int contentEnd, @NonNull List<Range> ranges) {
+    int j = contentStart;
+    while (j < contentEnd) {
+      char c = markdown.charAt(j);
+      if ((c == '*' || c == '_') && j + 1 < contentEnd && markdown.charAt(j + 1) == c) {
+        int boldContentStart = j + 2;
+        int closeBold = -1;
+        for (int k = boldContentStart; k < contentEnd - 1; k++) {
+          if (markdown.charAt(k) == c && markdown.charAt(k + 1) == c) {
+            closeBold = k;
+            break;
+          }
+        }
+        if (closeBold != -1 && closeBold > boldContentStart) {
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, j, 2, 1));
+          ranges.add(new Range(MarkdownRangeType.BOLD, boldContentStart, closeBold - boldContentStart, 1));
+          ranges.add(new Range(MarkdownRangeType.SYNTAX, closeBold, 2, 1));
+          j = closeBold + 2;
+          continue;
+        }
+      }
+      int closeItalic = findNestedItalicEnd(markdown, j, contentEnd);
+      if (closeItalic != -1) {
+        ranges.add(new Range(MarkdownRangeType.SYNTAX, j, 1, 1));
+        ranges.add(new Range(MarkdownRangeType.ITALIC, j + 1, closeItalic - j - 1, 1));
+        ranges.add(new Range(MarkdownRangeType.SYNTAX, closeItalic, 1, 1));
+        j = closeItalic + 1;
+        continue;
+      }
+      j++;
+    }
+  }
+
+  /**
+   * Returns the closing delimiter of a single `*` or `_` italic run opened at `open`, or -1.
+   */
+  private static int findNestedItalicEnd(@NonNull String markdown, int open, int contentEnd) {
+    char c = markdown.charAt(open);
+    if ((c != '*' && c != '_') || (open + 1 < contentEnd && markdown.charAt(open + 1) == c)) {
+      return -1;
+    }
+    for (int k = open + 1; k < contentEnd; k++) {
+      if (markdown.charAt(k) == c) {
+        if (k + 1 < contentEnd && markdown.charAt(k + 1) == c) {
+          k++;
+          continue;
+        }
+        return k > open + 1 ? k : -1;
+      }
+    }
+    return -1;
+  }
+
+  private static int getTagPriority(int typeId) {
+    switch (typeId) {
+      case MarkdownRangeType.BLOCKQUOTE:
+        return 2;
+      case MarkdownRangeType.H1:
+        return 1;
+      case MarkdownRangeType.EMOJI:
+        return -1;
+      default:
+        return 0;
+    }
+  }
+
+  private static List<Range> sortRanges(@NonNull List<Range> ranges) {
+    // Same order as `sortRanges` in rangeUtils.ts, the sort is stable in both
+    Collections.sort(ranges, (a, b) -> {
+      if (a.mStart != b.mStart) {
+        return Integer.compare(a.mStart, b.mStart);
+      }
+      if (a.mLength != b.mLength) {
+        return Integer.compare(b.mLength, a.mLength);
+      }
+      return Integer.compare(getTagPriority(b.mTypeId), getTagPriority(a.mTypeId));
+    });
+    return ranges;
+  }
+
+  private static void groupRanges(@NonNull List<Range> ranges, @NonNull MarkdownRanges markdownRanges) {
+    // Same as `groupRanges` in rangeUtils.ts, nested ranges of the same type become a single range with higher depth
+    List<Range> grouped = new ArrayList<>(ranges.size());
+    Range[] lastVisibleRanges = new Range[MarkdownRangeType.BUILT_IN_COUNT];
+    for (Range range : ranges) {
+      Range sameStyleRange = lastVisibleRanges[range.mTypeId];
+      if (sameStyleRange != null && sameStyleRange.mStart <= range.mStart && sameStyleRange.mStart + sameStyleRange.mLength >= range.mStart + range.mLength && range.mLength > 1) {
+        sameStyleRange.mDepth++;
+      } else {
+        lastVisibleRanges[range.mTypeId] = range;
+        grouped.add(range);
+      }
+    }
+
+    markdownRanges.ensureCapacity(markdownRanges.size() + grouped.size());
+    for (Range range : grouped) {
+      markdownRanges.add(range.mTypeId, range.mStart, range.mStart + range.mLength, range.mDepth);
+    }
+  }
+
+  private static List<String> splitLines(@NonNull String markdown) {
+    List<String> lines = new ArrayList<>();
+    int lineStart = 0;
+    int lineEnd;
+    while ((lineEnd = markdown.indexOf('\n', lineStart)) != -1) {
+      lines.add(markdown.substring(lineStart, lineEnd));
+      lineStart = lineEnd + 1;
+    }
+    lines.add(markdown.substring(lineStart));
+    return lines;
+  }
+
+  private static boolean isBlankLine(@NonNull String line) {
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c != ' ' && c != '\t') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int getIndentSyntaxLength(@NonNull String line) {
+    if (isBlankLine(line)) {
+      return 0;
+    }
+
+    int columns = 0;
+    int chars = 0;
+    while (chars < line.length() && columns < 4) {
+      char c = line.charAt(chars);
+      if (c == ' ') {
+        columns++;
+        chars++;
+        continue;
+      }
+      if (c == '\t') {
+        columns += 4 - (columns % 4);
+        chars++;
+        continue;
+      }
+      break;
+    }
+
+    return columns >= 4 ? chars : 0;
+  }
+
+  private static boolean isIndentedCodeLine(@NonNull String line) {
+    return getIndentSyntaxLength(line) > 0;
+  }
+
+  private static boolean hasFollowingIndentedLine(@NonNull List<String> lines, int startIndex) {
+    for (int i = startIndex; i < lines.size(); i++) {
+      String line = lines.get(i);
+      if (isBlankLine(line)) {
+        continue;
+      }
+      return isIndentedCodeLine(line);
+    }
+    return false;
+  }
+
+  /**
+   * Matches /^([ \t]*)(?:[-*+]|\d{1,9}[.)])[ \t]+/ and returns the marker start, or -1.
+   */
+  private static int matchListMarker(@NonNull String line) {
+    int indent = countSpacesAndTabs(line, 0);
+    if (isBulletMarker(line, indent) && isSpaceOrTab(line, indent + 1)) {
+      return indent;
+    }
+    int digits = countDigits(line, indent);
+    if (digits >= 1 && digits <= 9 && isListPunctuation(line, indent + digits) && isSpaceOrTab(line, indent + digits + 1)) {
+      return indent;
+    }
+    return -1;
+  }
+
+  /**
+   * Matches /[ \t]+\[([ xX])\][ \t]+/ at `position` and returns the end of the match, or -1.
+   */
+  private static int matchTaskBox(@NonNull String line, int position) {
+    int spaces = countSpacesAndTabs(line, position);
+    int bracketStart = position + spaces;
+    if (spaces == 0 || bracketStart + 2 >= line.length() || line.charAt(bracketStart) != '[' || line.charAt(bracketStart + 2) != ']') {
+      return -1;
+    }
+    char checkChar = line.charAt(bracketStart + 1);
+    if (checkChar != ' ' && checkChar != 'x' && checkChar != 'X') {
+      return -1;
+    }
+    int trailingSpaces = countSpacesAndTabs(line, bracketStart + 3);
+    return trailingSpaces > 0 ? bracketStart + 3 + trailingSpaces : -1;
+  }
+
+  private static boolean isBulletMarker(@NonNull String line, int position) {
+    if (position >= line.length()) {
+      return false;
+    }
+    char c = line.charAt(position);
+    return c == '-' || c == '*' || c == '+';
+  }
+
+  private static boolean isListPunctuation(@NonNull String line, int position) {
+    return position < line.length() && (line.charAt(position) == '.' || line.charAt(position) == ')');
+  }
+
+  private static boolean isSpaceOrTab(@NonNull String line, int position) {
+    return position < line.length() && (line.charAt(position) == ' ' || line.charAt(position) == '\t');
+  }
+
+  private static int countLeading(@NonNull String line, int position, char c) {
+    int count = 0;
+    while (position + count < line.length() && line.charAt(position + count) == c) {
+      count++;
+    }
+    return count;
+  }
+
+  private static int countSpacesAndTabs(@NonNull String line, int position) {
+    int count = 0;
+    while (isSpaceOrTab(line, position + count)) {
+      count++;
+    }
+    return count;
+  }
+
+  private static int countDigits(@NonNull String line, int position) {
+    int count = 0;
+    while (position + count < line.length() && line.charAt(position + count) >= '0' && line.charAt(position + count) <= '9') {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * JS `.` doesn't match line terminators, so `(.*)$` fails when the rest of the line contains one.
+   */
+  private static boolean hasLineTerminator(@NonNull String line, int position) {
+    for (int i = position; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (c == '\r' || c == '\u2028' || c == '\u2029') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String repeat(char c, int count) {
+    char[] chars = new char[count];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+}
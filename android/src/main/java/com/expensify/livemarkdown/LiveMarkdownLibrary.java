@@ -0,0 +1,32 @@
+package com.expensify.livemarkdown;
+
+import com.facebook.soloader.SoLoader;
+import com.facebook.systrace.Systrace;
+
+/**
+ * Loads the livemarkdown native library on first use rather than when classes are initialized, so
+ * that apps don't pay for it during cold start before any markdown input is shown.
+ */
+final class LiveMarkdownLibrary {
+  private static volatile boolean sLoaded = false;
+
+  private LiveMarkdownLibrary() {}
+
+  static void load() {
+    if (sLoaded) {
+      return;
+    }
+    synchronized (LiveMarkdownLibrary.class) {
+      if (sLoaded) {
+        return;
+      }
+      try {
+        Systrace.beginSection(0, "loadLivemarkdownLibrary");
+        SoLoader.loadLibrary("livemarkdown");
+        sLoaded = true;
+      } finally {
+        Systrace.endSection(0);
+      }
+    }
+  }
+}
@@ -1,25 +1,36 @@
 package com.expensify.livemarkdown;
 
 import com.facebook.react.bridge.ReactApplicationContext;
-import com.facebook.soloader.SoLoader;
+import com.facebook.systrace.Systrace;
 
 import java.util.Objects;
 
 public class LiveMarkdownModule extends NativeLiveMarkdownModuleSpec {
-  static {
-    SoLoader.loadLibrary("livemarkdown");
-  }
-
   public LiveMarkdownModule(ReactApplicationContext reactContext) {
     super(reactContext);
   }
 
+  /**
+   * Called from JS when the first parser is registered. Loads the native library, which the JSI
+   * bindings are part of. Parsing is warmed up only once a decorator attaches.
+   */
   @Override
   public boolean install() {
-    long jsiRuntime = Objects.requireNonNull(getReactApplicationContext().getJavaScriptContextHolder(), "[react-native-live-markdown] JavaScriptContextHolder is null").get();
-    injectJSIBindings(jsiRuntime);
+    try {
+      Systrace.beginSection(0, "LiveMarkdownModule.install");
+      LiveMarkdownLibrary.load();
 
-    return true;
+      long jsiRuntime = Objects.requireNonNull(getReactApplicationContext().getJavaScriptContextHolder(), "[react-native-live-markdown] JavaScriptContextHolder is null").get();
+      try {
+        Systrace.beginSection(0, "injectJSIBindings");
+        injectJSIBindings(jsiRuntime);
+      } finally {
+        Systrace.endSection(0);
+      }
+      return true;
+    } finally {
+      Systrace.endSection(0);
+    }
   }
 
   private native void injectJSIBindings(long jsiRuntime);
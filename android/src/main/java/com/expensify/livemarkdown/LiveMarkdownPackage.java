@@ -5,25 +5,43 @@ import androidx.annotation.Nullable;
 
 import com.facebook.react.ReactPackage;
 import com.facebook.react.TurboReactPackage;
+import com.facebook.react.ViewManagerOnDemandReactPackage;
 import com.facebook.react.bridge.NativeModule;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.module.model.ReactModuleInfo;
 import com.facebook.react.module.model.ReactModuleInfoProvider;
 import com.facebook.react.uimanager.ViewManager;
 
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-public class LiveMarkdownPackage extends TurboReactPackage {
+public class LiveMarkdownPackage extends TurboReactPackage implements ViewManagerOnDemandReactPackage {
   @NonNull
   @Override
   @SuppressWarnings("rawtypes")
   public List<ViewManager> createViewManagers(@NonNull ReactApplicationContext reactContext) {
-    List<ViewManager> viewManagers = new ArrayList<>();
-    viewManagers.add(new MarkdownTextInputDecoratorViewManager());
-    return viewManagers;
+    return Collections.singletonList(new MarkdownTextInputDecoratorViewManager());
+  }
+
+  /**
+   * Lets React Native create the view manager when the first decorator is rendered instead of at startup.
+   */
+  @NonNull
+  @Override
+  public Collection<String> getViewManagerNames(@NonNull ReactApplicationContext reactContext) {
+    return Collections.singletonList(MarkdownTextInputDecoratorViewManager.NAME);
+  }
+
+  @Nullable
+  @Override
+  @SuppressWarnings("rawtypes")
+  public ViewManager createViewManager(@NonNull ReactApplicationContext reactContext, @NonNull String viewManagerName) {
+    if (viewManagerName.equals(MarkdownTextInputDecoratorViewManager.NAME)) {
+      return new MarkdownTextInputDecoratorViewManager();
+    }
+    return null;
   }
 
   @Override
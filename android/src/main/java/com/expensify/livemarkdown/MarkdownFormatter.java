@@ -3,356 +3,810 @@ package com.expensify.livemarkdown;
 import android.content.res.AssetManager;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.style.LeadingMarginSpan;
+import android.text.style.LineHeightSpan;
+import android.text.style.UpdateLayout;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.expensify.livemarkdown.spans.*;
 import com.facebook.react.views.text.internal.span.CustomLineHeightSpan;
 import com.facebook.systrace.Systrace;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 public class MarkdownFormatter {
+  // Indexed by type id, replaced as a whole on registration
+  private static volatile MarkdownRangeHandler[] sCustomRangeHandlers = new MarkdownRangeHandler[0];
+
   private final @NonNull AssetManager mAssetManager;
 
+  // Handlers of built-in types indexed by type id, types without styling have no handler
+  private final @NonNull MarkdownRangeHandler[] mRangeHandlers = new MarkdownRangeHandler[MarkdownRangeType.BUILT_IN_COUNT];
+
+  // State of the format in progress, used by handlers that depend on lines
+  private String mText;
+  private MarkdownLineIndex mLineIndex;
+  private int mCursorLine;
+
+  // Line bounds of tables and the line height of the input, looked up at most once per format
+  private int[] mTableBounds;
+  private int mTableCount;
+  private boolean mIsTableBoundsResolved;
+  private int mBaseLineHeight;
+  private boolean mIsBaseLineHeightResolved;
+
+  // Spans that don't affect layout are only set within [start, end) of the styled region, see setStyledRegion
+  private int mStyledRegionStart = 0;
+  private int mStyledRegionEnd = Integer.MAX_VALUE;
+  private boolean mIsStyledRegionLimited;
+
+  // Compiled from the style of the last format, style objects are replaced when props change
+  private MarkdownRenderSpec mRenderSpec;
+
+  // Spans set by handlers during the format in progress, in order. They are compared with the spans
+  // already in the text, so that only spans that changed are removed and set.
+  private MarkdownSpan[] mPlannedSpans = new MarkdownSpan[64];
+  private int[] mPlannedSpanStarts = new int[64];
+  private int[] mPlannedSpanEnds = new int[64];
+  private int mPlannedSpanCount;
+
+  // Syntax spans are shown while the cursor is within [start, end] of their zone and hidden
+  // otherwise. Other planned spans don't depend on the cursor and have no zone.
+  private static final int NO_REVEAL_ZONE = Integer.MIN_VALUE;
+  private int[] mPlannedRevealZoneStarts = new int[64];
+  private int[] mPlannedRevealZoneEnds = new int[64];
+
+  // Spans in the text for each planned span and what the last format was done for, so that a cursor
+  // move only toggles syntax spans, see updateCursorPosition
+  private MarkdownSpan[] mAppliedSpans = new MarkdownSpan[64];
+  private MarkdownRanges mFormattedRanges;
+  private String mFormattedText;
+  private boolean mHasCustomRanges;
+
+  // Spans removed and set by the last format or cursor update, and by all of them
+  private int mLastSpanOperationCount;
+  private long mSpanOperationCount;
+
+  // Built for the ranges of the last format that had syntax, parse results aren't modified
+  private MarkdownInlineSyntaxIndex mInlineSyntaxIndex;
+
+  // Format planned but not fully applied yet, see startFormat
+  private static final int CHUNK_SIZE = 64;
+  private PendingFormat mPendingFormat;
+
   public MarkdownFormatter(@NonNull AssetManager assetManager) {
     mAssetManager = assetManager;
+    registerBuiltInRangeHandlers();
   }
 
-  // Inline formatting types that should hide based on cursor adjacency, not line
-  private static final java.util.Set<String> INLINE_TYPES = java.util.Set.of(
-    "bold", "italic", "strikethrough", "link"
-  );
+  /**
+   * Registers a handler for ranges of `type` and returns the type id. Custom types are registered
+   * in MarkdownRangeType so that parsers can emit them. A handler registered for a built-in type
+   * replaces the default styling.
+   */
+  public static synchronized int registerRangeHandler(@NonNull String type, @NonNull MarkdownRangeHandler rangeHandler) {
+    int typeId = MarkdownRangeType.register(type);
+    MarkdownRangeHandler[] rangeHandlers = Arrays.copyOf(sCustomRangeHandlers, Math.max(sCustomRangeHandlers.length, typeId + 1));
+    rangeHandlers[typeId] = rangeHandler;
+    sCustomRangeHandlers = rangeHandlers;
+    return typeId;
+  }
+
+  /**
+   * Formats `ssb` with `lineIndex` already updated for its text. The caller keeps the index, so
+   * that edits update it instead of each format building it again, see MarkdownUtils.
+   */
+  void format(@NonNull SpannableStringBuilder ssb, @NonNull MarkdownRanges markdownRanges, @NonNull MarkdownStyle markdownStyle, int cursorPosition, @NonNull MarkdownLineIndex lineIndex) {
+    startFormat(ssb, markdownRanges, markdownStyle, cursorPosition, lineIndex, 0, 0);
+    resumeFormat(Long.MAX_VALUE);
+  }
 
-  public void format(@NonNull SpannableStringBuilder ssb, @NonNull List<MarkdownRange> markdownRanges, @NonNull MarkdownStyle markdownStyle, int cursorPosition) {
+  /**
+   * Plans a format like `format` without changing spans, which resumeFormat then applies part by
+   * part: first around the line of the cursor, then within [priorityStart, priorityEnd), then
+   * elsewhere. Replaces a format that wasn't fully applied yet.
+   */
+  void startFormat(@NonNull SpannableStringBuilder ssb, @NonNull MarkdownRanges markdownRanges, @NonNull MarkdownStyle markdownStyle, int cursorPosition, @NonNull MarkdownLineIndex lineIndex, int priorityStart, int priorityEnd) {
     try {
       Systrace.beginSection(0, "format");
       Objects.requireNonNull(markdownStyle, "mMarkdownStyle is null");
-      removeSpans(ssb);
-      String text = ssb.toString();
-      int cursorLine = cursorPosition >= 0 ? getLineNumber(text, cursorPosition) : -1;
-      applyRanges(ssb, markdownRanges, markdownStyle, text, cursorLine, cursorPosition);
+      boolean isStyleChanged = mRenderSpec == null || mRenderSpec.getMarkdownStyle() != markdownStyle;
+      if (isStyleChanged) {
+        mRenderSpec = new MarkdownRenderSpec(markdownStyle, mAssetManager);
+      }
+      mPendingFormat = null;
+      mFormattedRanges = null;
+      Arrays.fill(mPlannedSpans, 0, mPlannedSpanCount, null);
+      Arrays.fill(mAppliedSpans, 0, mPlannedSpanCount, null);
+      mPlannedSpanCount = 0;
+      mHasCustomRanges = false;
+      // We shouldn't use `removeSpans()` because it also removes SpellcheckSpan, SuggestionSpan etc.
+      MarkdownSpan[] previousSpans = ssb.getSpans(0, ssb.length(), MarkdownSpan.class);
+      // Spans left outside of the region would keep the previous style
+      mIsStyledRegionLimited = (!isStyleChanged || previousSpans.length == 0) && (mStyledRegionStart > 0 || mStyledRegionEnd < ssb.length());
+      mText = lineIndex.getText();
+      mLineIndex = lineIndex;
+      mCursorLine = cursorPosition >= 0 ? lineIndex.getLineNumber(cursorPosition) : -1;
+      mIsTableBoundsResolved = false;
+      mIsBaseLineHeightResolved = false;
+      applyRanges(ssb, markdownRanges, markdownStyle, cursorPosition);
+      PendingFormat pendingFormat = new PendingFormat(ssb, markdownRanges, mText);
+      prepareSpans(ssb, previousSpans, pendingFormat);
+      if (cursorPosition >= 0 && cursorPosition <= mText.length()) {
+        pendingFormat.setPriority(lineIndex.getLineStart(cursorPosition), lineIndex.getLineEnd(cursorPosition), priorityStart, priorityEnd);
+      } else {
+        pendingFormat.setPriority(Integer.MAX_VALUE, Integer.MIN_VALUE, priorityStart, priorityEnd);
+      }
+      mPendingFormat = pendingFormat;
     } finally {
+      mText = null;
+      mLineIndex = null;
       Systrace.endSection(0);
     }
   }
 
   /**
-   * Get the line number (0-indexed) for a given character position.
+   * Applies parts of the started format until `deadlineNanos` of System.nanoTime passes, at least
+   * one part per call. Returns true once the whole format is applied. The text mustn't change in
+   * the meantime, a format for the new text replaces the started one.
    */
-  private int getLineNumber(String text, int position) {
-    if (position < 0 || position > text.length()) {
-      return 0;
+  boolean resumeFormat(long deadlineNanos) {
+    PendingFormat pendingFormat = mPendingFormat;
+    if (pendingFormat == null) {
+      return true;
     }
-    int line = 0;
-    for (int i = 0; i < position; i++) {
-      if (text.charAt(i) == '\n') {
-        line++;
+    try {
+      Systrace.beginSection(0, "applySpans");
+      do {
+        pendingFormat.applyNextChunk();
+      } while (!pendingFormat.isApplied() && System.nanoTime() < deadlineNanos);
+      if (!pendingFormat.isApplied()) {
+        return false;
       }
+      mPendingFormat = null;
+      recordSpanOperations(pendingFormat.mSpanOperationCount);
+      mFormattedRanges = pendingFormat.mMarkdownRanges;
+      mFormattedText = pendingFormat.mText;
+      return true;
+    } finally {
+      Systrace.endSection(0);
     }
-    return line;
   }
 
-  private void removeSpans(@NonNull SpannableStringBuilder ssb) {
+  /**
+   * Drops the rest of a started format, e.g. when the text changed before it was fully applied.
+   * Spans of parts already applied stay and are compared with the plan of the next format.
+   */
+  void cancelFormat() {
+    mPendingFormat = null;
+  }
+
+  boolean isFormatPending() {
+    return mPendingFormat != null;
+  }
+
+  /**
+   * Limits the following formats to styling [start, end) fully, for texts much longer than what is
+   * visible. Outside of the region only spans that affect layout are set, so that the height of
+   * the text and the scroll position don't change as other regions get styled. Other spans already
+   * set outside of the region are left as they are until a format with a region covering them.
+   */
+  void setStyledRegion(int start, int end) {
+    mStyledRegionStart = start;
+    mStyledRegionEnd = end;
+  }
+
+  private boolean isOutsideStyledRegion(int start, int end) {
+    return mIsStyledRegionLimited && (end <= mStyledRegionStart || start >= mStyledRegionEnd);
+  }
+
+  private static boolean affectsLayout(@NonNull MarkdownSpan span) {
+    return span instanceof UpdateLayout || span instanceof LeadingMarginSpan || span instanceof LineHeightSpan;
+  }
+
+  /**
+   * Returns the number of spans removed and set by the last format or cursor update.
+   */
+  public int getLastSpanOperationCount() {
+    return mLastSpanOperationCount;
+  }
+
+  /**
+   * Returns the number of spans removed and set by all formats and cursor updates so far.
+   */
+  public long getSpanOperationCount() {
+    return mSpanOperationCount;
+  }
+
+  private void recordSpanOperations(int count) {
+    mLastSpanOperationCount = count;
+    mSpanOperationCount += count;
+    Systrace.traceCounter(0, "spanOperations", count);
+  }
+
+  /**
+   * Shows and hides syntax for a new cursor position without formatting the whole text again. Only
+   * syntax spans whose visibility changes are replaced, along with spans that have to be set again
+   * to stay drawn on top of them. Returns false when the text, ranges or style changed since the
+   * last format, in which case `format` has to be called instead.
+   */
+  public boolean updateCursorPosition(@NonNull SpannableStringBuilder ssb, @NonNull MarkdownRanges markdownRanges, @NonNull MarkdownStyle markdownStyle, int cursorPosition) {
+    // Custom handlers get the cursor position as well and may depend on it
+    if (markdownRanges != mFormattedRanges || mRenderSpec.getMarkdownStyle() != markdownStyle || mHasCustomRanges
+      || cursorPosition < 0 || cursorPosition > ssb.length() || !TextUtils.equals(ssb, mFormattedText)) {
+      return false;
+    }
     try {
-      Systrace.beginSection(0, "removeSpans");
-      // We shouldn't use `removeSpans()` because it also removes SpellcheckSpan, SuggestionSpan etc.
-      MarkdownSpan[] spans = ssb.getSpans(0, ssb.length(), MarkdownSpan.class);
-      for (MarkdownSpan span : spans) {
-        ssb.removeSpan(span);
+      Systrace.beginSection(0, "updateCursorPosition");
+      // Same ordering rule as in applySpans
+      boolean[] isSpanReset = new boolean[mPlannedSpanCount];
+      MarkdownSpan[] spans = new MarkdownSpan[mPlannedSpanCount];
+      boolean hasResetSpans = false;
+      int maxSetSpanEnd = -1;
+      for (int i = 0; i < mPlannedSpanCount; i++) {
+        int start = mPlannedSpanStarts[i];
+        int end = mPlannedSpanEnds[i];
+        MarkdownSpan span = mPlannedSpans[i];
+        if (mPlannedRevealZoneStarts[i] != NO_REVEAL_ZONE) {
+          boolean isHidden = cursorPosition < mPlannedRevealZoneStarts[i] || cursorPosition > mPlannedRevealZoneEnds[i];
+          span = isHidden ? mRenderSpec.hiddenSpan : mRenderSpec.syntaxColorSpan;
+        }
+        if (span == mPlannedSpans[i] && start >= maxSetSpanEnd) {
+          continue;
+        }
+        // Spans moved by edits that weren't formatted yet, e.g. text changed and changed back
+        if (ssb.getSpanStart(mAppliedSpans[i]) != start || ssb.getSpanEnd(mAppliedSpans[i]) != end) {
+          mFormattedRanges = null;
+          return false;
+        }
+        isSpanReset[i] = true;
+        spans[i] = span;
+        hasResetSpans = true;
+        if (!(span instanceof LeadingMarginSpan)) {
+          maxSetSpanEnd = Math.max(maxSetSpanEnd, end);
+        }
       }
+      if (!hasResetSpans) {
+        recordSpanOperations(0);
+        return true;
+      }
+
+      // Toggled spans are swapped with each other as the cursor moves from one zone to another
+      List<MarkdownSpan> removedSpans = new ArrayList<>();
+      int spanOperationCount = 0;
+      for (int i = 0; i < mPlannedSpanCount; i++) {
+        if (isSpanReset[i]) {
+          ssb.removeSpan(mAppliedSpans[i]);
+          spanOperationCount += 2;
+          if (spans[i] != mPlannedSpans[i]) {
+            removedSpans.add(mAppliedSpans[i]);
+          }
+        }
+      }
+      for (int i = 0; i < mPlannedSpanCount; i++) {
+        if (isSpanReset[i]) {
+          if (spans[i] != mPlannedSpans[i]) {
+            MarkdownSpan span = takeEquivalentSpan(removedSpans, spans[i]);
+            mPlannedSpans[i] = spans[i];
+            mAppliedSpans[i] = span != null ? span : spans[i].copy();
+          }
+          ssb.setSpan(mAppliedSpans[i], mPlannedSpanStarts[i], mPlannedSpanEnds[i], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+      }
+      recordSpanOperations(spanOperationCount);
+      return true;
     } finally {
       Systrace.endSection(0);
     }
   }
 
-  private void applyRanges(@NonNull SpannableStringBuilder ssb, @NonNull List<MarkdownRange> markdownRanges, @NonNull MarkdownStyle markdownStyle, String text, int cursorLine, int cursorPosition) {
+  /**
+   * Decides how `previousSpans` are replaced with the planned spans and splits the changes into
+   * chunks for resumeFormat. Previous spans equivalent to a planned span on the same range are kept,
+   * so a small edit only removes and sets the few spans that changed.
+   */
+  private void prepareSpans(@NonNull SpannableStringBuilder ssb, @NonNull MarkdownSpan[] previousSpans, @NonNull PendingFormat pendingFormat) {
     try {
-      Systrace.beginSection(0, "applyRanges");
-      for (MarkdownRange markdownRange : markdownRanges) {
-        applyRange(ssb, markdownRange, markdownRanges, markdownStyle, text, cursorLine, cursorPosition);
+      Systrace.beginSection(0, "prepareSpans");
+      // Previous spans by range, chained through `nextSpanIndexes` in the order they were set
+      int previousSpanCount = previousSpans.length;
+      Map<Long, Integer> firstSpanIndexes = new HashMap<>(previousSpanCount * 2);
+      int[] nextSpanIndexes = new int[previousSpanCount];
+      int[] previousSpanStarts = new int[previousSpanCount];
+      int[] previousSpanEnds = new int[previousSpanCount];
+      for (int i = previousSpanCount - 1; i >= 0; i--) {
+        previousSpanStarts[i] = ssb.getSpanStart(previousSpans[i]);
+        previousSpanEnds[i] = ssb.getSpanEnd(previousSpans[i]);
+        Integer nextSpanIndex = firstSpanIndexes.put(getRangeKey(previousSpanStarts[i], previousSpanEnds[i]), i);
+        nextSpanIndexes[i] = nextSpanIndex != null ? nextSpanIndex : -1;
       }
+
+      boolean[] isPreviousSpanKept = new boolean[previousSpanCount];
+      boolean[] isPlannedSpanKept = new boolean[mPlannedSpanCount];
+      // Spans set later are drawn on top of earlier ones and override their attributes, so a span
+      // overlapping a newly set one is set again to keep the planned order. Leading margins don't
+      // depend on order, which keeps large blockquotes from resetting all spans inside.
+      int maxSetSpanEnd = -1;
+      for (int i = 0; i < mPlannedSpanCount; i++) {
+        MarkdownSpan plannedSpan = mPlannedSpans[i];
+        int start = mPlannedSpanStarts[i];
+        int end = mPlannedSpanEnds[i];
+        if (start >= maxSetSpanEnd) {
+          Integer spanIndex = firstSpanIndexes.get(getRangeKey(start, end));
+          for (int j = spanIndex != null ? spanIndex : -1; j != -1; j = nextSpanIndexes[j]) {
+            if (!isPreviousSpanKept[j] && previousSpans[j].isEquivalentTo(plannedSpan)) {
+              isPreviousSpanKept[j] = true;
+              isPlannedSpanKept[i] = true;
+              mAppliedSpans[i] = previousSpans[j];
+              break;
+            }
+          }
+        }
+        if (!isPlannedSpanKept[i] && !(plannedSpan instanceof LeadingMarginSpan)) {
+          maxSetSpanEnd = Math.max(maxSetSpanEnd, end);
+        }
+      }
+
+      // Spans outside of the styled region weren't planned, they're updated once it covers them.
+      // Those overlapping a span set by this format would end up below it regardless of the planned
+      // order, so they're removed until then.
+      SetSpanIndex setSpanIndex = mIsStyledRegionLimited ? new SetSpanIndex(isPlannedSpanKept) : null;
+      boolean[] isPreviousSpanRemoved = new boolean[previousSpanCount];
+      for (int i = 0; i < previousSpanCount; i++) {
+        isPreviousSpanRemoved[i] = !isPreviousSpanKept[i] && !(isOutsideStyledRegion(previousSpanStarts[i], previousSpanEnds[i])
+          && !affectsLayout(previousSpans[i]) && !setSpanIndex.overlaps(previousSpanStarts[i], previousSpanEnds[i]));
+      }
+      pendingFormat.setSpans(previousSpans, previousSpanStarts, isPreviousSpanRemoved, isPlannedSpanKept);
     } finally {
       Systrace.endSection(0);
     }
   }
 
   /**
-   * Check if a syntax range is adjacent to an inline content type (bold/italic/strikethrough).
+   * Changes planned by startFormat that weren't applied yet. Planned spans are split into chunks
+   * that no other planned span overlaps, apart from leading margins, so chunks can be applied in any
+   * order and the spans still end up in the planned order. Previous spans are removed along with the
+   * chunk their start is in, and every chunk is applied as a whole, so a format cancelled between
+   * chunks leaves spans that the next format can compare with its plan.
    */
-  private boolean isAdjacentToInlineType(MarkdownRange syntaxRange, List<MarkdownRange> allRanges) {
-    int syntaxStart = syntaxRange.getStart();
-    int syntaxEnd = syntaxRange.getEnd();
-
-    for (MarkdownRange range : allRanges) {
-      if (INLINE_TYPES.contains(range.getType())) {
-        int contentStart = range.getStart();
-        int contentEnd = range.getEnd();
-        // Adjacent if: syntax ends where content starts, or content ends where syntax starts
-        if (syntaxEnd == contentStart || contentEnd == syntaxStart) {
-          return true;
+  private class PendingFormat {
+    private final @NonNull SpannableStringBuilder mSsb;
+    private final @NonNull MarkdownRanges mMarkdownRanges;
+    private final @NonNull String mText;
+
+    private MarkdownSpan[] mPreviousSpans;
+    private boolean[] mIsPreviousSpanRemoved;
+    private boolean[] mIsPlannedSpanKept;
+    // Previous span indexes in the order of their starts
+    private int[] mPreviousSpanOrder;
+
+    // Chunk `i` covers planned spans [mChunkPlanStarts[i], mChunkPlanStarts[i + 1]) and previous
+    // spans [mChunkPreviousStarts[i], mChunkPreviousStarts[i + 1]) of mPreviousSpanOrder
+    private int[] mChunkPlanStarts;
+    private int[] mChunkPreviousStarts;
+    private int mChunkCount;
+    // Chunks in the order they're applied, and how many of them are
+    private int[] mChunkOrder;
+    private int mAppliedChunkCount;
+
+    // Removed spans are set again for planned spans of the same style, before copying prototypes
+    private final Map<Class<?>, List<MarkdownSpan>> mRemovedSpans = new HashMap<>();
+    private int mSpanOperationCount;
+
+    PendingFormat(@NonNull SpannableStringBuilder ssb, @NonNull MarkdownRanges markdownRanges, @NonNull String text) {
+      mSsb = ssb;
+      mMarkdownRanges = markdownRanges;
+      mText = text;
+    }
+
+    void setSpans(@NonNull MarkdownSpan[] previousSpans, @NonNull int[] previousSpanStarts, @NonNull boolean[] isPreviousSpanRemoved, @NonNull boolean[] isPlannedSpanKept) {
+      mPreviousSpans = previousSpans;
+      mIsPreviousSpanRemoved = isPreviousSpanRemoved;
+      mIsPlannedSpanKept = isPlannedSpanKept;
+      long[] keys = new long[previousSpans.length];
+      for (int i = 0; i < previousSpans.length; i++) {
+        keys[i] = ((long) previousSpanStarts[i] << 32) | i;
+      }
+      Arrays.sort(keys);
+      mPreviousSpanOrder = new int[previousSpans.length];
+      for (int i = 0; i < previousSpans.length; i++) {
+        mPreviousSpanOrder[i] = (int) keys[i];
+      }
+
+      // Planned spans are in the order of their starts as ranges are, a chunk ends once it has
+      // enough spans and none of them reaches past the start of the next one. Otherwise, e.g. with
+      // custom handlers, everything is a single chunk.
+      int[] chunkPlanStarts = new int[mPlannedSpanCount / CHUNK_SIZE + 2];
+      int chunkCount = 1;
+      int maxEnd = Integer.MIN_VALUE;
+      boolean isOrdered = true;
+      for (int i = 1; i < mPlannedSpanCount && isOrdered; i++) {
+        if (!(mPlannedSpans[i - 1] instanceof LeadingMarginSpan)) {
+          maxEnd = Math.max(maxEnd, mPlannedSpanEnds[i - 1]);
+        }
+        int start = mPlannedSpanStarts[i];
+        isOrdered = start >= mPlannedSpanStarts[i - 1];
+        if (i - chunkPlanStarts[chunkCount - 1] >= CHUNK_SIZE && start > mPlannedSpanStarts[i - 1] && maxEnd <= start) {
+          chunkPlanStarts[chunkCount++] = i;
+        }
+      }
+      if (!isOrdered) {
+        chunkCount = 1;
+      }
+      chunkPlanStarts[chunkCount] = mPlannedSpanCount;
+      mChunkPlanStarts = chunkPlanStarts;
+      mChunkCount = chunkCount;
+
+      mChunkPreviousStarts = new int[chunkCount + 1];
+      int previousIndex = 0;
+      for (int i = 1; i < chunkCount; i++) {
+        int chunkStart = mPlannedSpanStarts[chunkPlanStarts[i]];
+        while (previousIndex < mPreviousSpanOrder.length && previousSpanStarts[mPreviousSpanOrder[previousIndex]] < chunkStart) {
+          previousIndex++;
+        }
+        mChunkPreviousStarts[i] = previousIndex;
+      }
+      mChunkPreviousStarts[chunkCount] = mPreviousSpanOrder.length;
+    }
+
+    /**
+     * Orders chunks by the priority of their text: first the line [lineStart, lineEnd] of the
+     * cursor, then [regionStart, regionEnd), then the rest.
+     */
+    void setPriority(int lineStart, int lineEnd, int regionStart, int regionEnd) {
+      int[] priorities = new int[mChunkCount];
+      for (int i = 0; i < mChunkCount; i++) {
+        int start = i > 0 ? mPlannedSpanStarts[mChunkPlanStarts[i]] : Integer.MIN_VALUE;
+        int end = i + 1 < mChunkCount ? mPlannedSpanStarts[mChunkPlanStarts[i + 1]] : Integer.MAX_VALUE;
+        if (start <= lineEnd && end > lineStart) {
+          priorities[i] = 0;
+        } else if (start < regionEnd && end > regionStart) {
+          priorities[i] = 1;
+        } else {
+          priorities[i] = 2;
+        }
+      }
+      mChunkOrder = new int[mChunkCount];
+      int count = 0;
+      for (int priority = 0; priority <= 2; priority++) {
+        for (int i = 0; i < mChunkCount; i++) {
+          if (priorities[i] == priority) {
+            mChunkOrder[count++] = i;
+          }
+        }
+      }
+    }
+
+    boolean isApplied() {
+      return mAppliedChunkCount == mChunkCount;
+    }
+
+    void applyNextChunk() {
+      int chunk = mChunkOrder[mAppliedChunkCount++];
+      for (int i = mChunkPreviousStarts[chunk]; i < mChunkPreviousStarts[chunk + 1]; i++) {
+        MarkdownSpan span = mPreviousSpans[mPreviousSpanOrder[i]];
+        if (mIsPreviousSpanRemoved[mPreviousSpanOrder[i]]) {
+          mSsb.removeSpan(span);
+          mSpanOperationCount++;
+          List<MarkdownSpan> spans = mRemovedSpans.get(span.getClass());
+          if (spans == null) {
+            spans = new ArrayList<>();
+            mRemovedSpans.put(span.getClass(), spans);
+          }
+          spans.add(span);
+        }
+      }
+      for (int i = mChunkPlanStarts[chunk]; i < mChunkPlanStarts[chunk + 1]; i++) {
+        if (!mIsPlannedSpanKept[i]) {
+          MarkdownSpan span = takeEquivalentSpan(mRemovedSpans.get(mPlannedSpans[i].getClass()), mPlannedSpans[i]);
+          mAppliedSpans[i] = span != null ? span : mPlannedSpans[i].copy();
+          mSsb.setSpan(mAppliedSpans[i], mPlannedSpanStarts[i], mPlannedSpanEnds[i], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+          mSpanOperationCount++;
         }
       }
     }
-    return false;
   }
 
   /**
-   * Check if this syntax range is adjacent to an inline formatted region (bold/italic/strikethrough)
-   * and whether the cursor is within or immediately after that region.
-   *
-   * @param syntaxRange The syntax range being checked
-   * @param allRanges All markdown ranges (to find adjacent inline content)
-   * @param cursorPos The current cursor position
-   * @return true if syntax should be shown, false if it should be hidden
+   * Planned spans that aren't kept, answering whether any of them overlaps a range.
    */
-  private boolean shouldShowInlineSyntax(MarkdownRange syntaxRange, List<MarkdownRange> allRanges, int cursorPos) {
-    int syntaxStart = syntaxRange.getStart();
-    int syntaxEnd = syntaxRange.getEnd();
-
-    // Find the adjacent inline content range
-    MarkdownRange contentRange = null;
-    for (MarkdownRange range : allRanges) {
-      if (INLINE_TYPES.contains(range.getType())) {
-        int contentStart = range.getStart();
-        int contentEnd = range.getEnd();
-        if (syntaxEnd == contentStart || contentEnd == syntaxStart) {
-          contentRange = range;
-          break;
+  private class SetSpanIndex {
+    // Starts of set spans in ascending order, and the largest end among spans up to each of them
+    private final int[] mStarts;
+    private final int[] mMaxEnds;
+
+    SetSpanIndex(@NonNull boolean[] isPlannedSpanKept) {
+      long[] keys = new long[mPlannedSpanCount];
+      int count = 0;
+      for (int i = 0; i < mPlannedSpanCount; i++) {
+        if (!isPlannedSpanKept[i]) {
+          keys[count++] = getRangeKey(mPlannedSpanStarts[i], mPlannedSpanEnds[i]);
         }
       }
+      Arrays.sort(keys, 0, count);
+      mStarts = new int[count];
+      mMaxEnds = new int[count];
+      for (int i = 0; i < count; i++) {
+        mStarts[i] = (int) (keys[i] >> 32);
+        mMaxEnds[i] = Math.max((int) keys[i], i > 0 ? mMaxEnds[i - 1] : Integer.MIN_VALUE);
+      }
     }
 
-    if (contentRange == null) {
-      return true; // No adjacent content found, show syntax
+    boolean overlaps(int start, int end) {
+      // Last set span starting before `end`
+      int low = 0;
+      int high = mStarts.length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (mStarts[middle] < end) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low > 0 && mMaxEnds[low - 1] > start;
+    }
+  }
+
+  @Nullable
+  private static MarkdownSpan takeEquivalentSpan(@Nullable List<MarkdownSpan> spans, @NonNull MarkdownSpan plannedSpan) {
+    if (spans == null) {
+      return null;
     }
+    for (int i = spans.size() - 1; i >= 0; i--) {
+      if (spans.get(i).isEquivalentTo(plannedSpan)) {
+        MarkdownSpan span = spans.get(i);
+        spans.set(i, spans.get(spans.size() - 1));
+        spans.remove(spans.size() - 1);
+        return span;
+      }
+    }
+    return null;
+  }
 
-    // Find the full zone: opening syntax + content + closing syntax
-    // We need to find both syntax ranges that surround this content
-    int zoneStart = contentRange.getStart();
-    int zoneEnd = contentRange.getEnd();
+  private static long getRangeKey(int start, int end) {
+    return ((long) start << 32) | (end & 0xFFFFFFFFL);
+  }
 
-    for (MarkdownRange range : allRanges) {
-      if ("syntax".equals(range.getType())) {
-        // Opening syntax: ends where content starts
-        if (range.getEnd() == contentRange.getStart()) {
-          zoneStart = range.getStart();
+  private void applyRanges(@NonNull SpannableStringBuilder ssb, @NonNull MarkdownRanges markdownRanges, @NonNull MarkdownStyle markdownStyle, int cursorPosition) {
+    try {
+      Systrace.beginSection(0, "applyRanges");
+      MarkdownRangeHandler[] customRangeHandlers = sCustomRangeHandlers;
+      for (int i = 0; i < markdownRanges.size(); i++) {
+        int typeId = markdownRanges.getTypeId(i);
+        MarkdownRangeHandler rangeHandler = typeId >= 0 && typeId < customRangeHandlers.length ? customRangeHandlers[typeId] : null;
+        if (rangeHandler != null) {
+          mHasCustomRanges = true;
+        } else if (typeId >= 0 && typeId < mRangeHandlers.length) {
+          rangeHandler = mRangeHandlers[typeId];
         }
-        // Closing syntax: starts where content ends
-        if (range.getStart() == contentRange.getEnd()) {
-          zoneEnd = range.getEnd();
+        if (rangeHandler != null) {
+          rangeHandler.apply(ssb, markdownRanges, i, markdownStyle, cursorPosition);
         }
       }
+    } finally {
+      Systrace.endSection(0);
     }
-
-    // Cursor is "in the zone" if it's anywhere within the formatted region
-    // This includes the syntax characters and content, but NOT the position after
-    return cursorPos >= zoneStart && cursorPos <= zoneEnd;
   }
 
-  private void applyRange(@NonNull SpannableStringBuilder ssb, @NonNull MarkdownRange markdownRange, @NonNull List<MarkdownRange> allRanges, @NonNull MarkdownStyle markdownStyle, String text, int cursorLine, int cursorPosition) {
-    String type = markdownRange.getType();
-    int start = markdownRange.getStart();
-    int end = markdownRange.getEnd();
-    switch (type) {
-      case "bold":
-        setSpan(ssb, new MarkdownBoldSpan(), start, end);
-        break;
-      case "italic":
-        setSpan(ssb, new MarkdownItalicSpan(), start, end);
-        break;
-      case "strikethrough":
-        setSpan(ssb, new MarkdownStrikethroughSpan(), start, end);
-        break;
-      case "emoji":
-        setSpan(ssb, new MarkdownFontFamilySpan(markdownStyle.getEmojiFontFamily(), mAssetManager), start, end);
-        setSpan(ssb, new MarkdownFontSizeSpan(markdownStyle.getEmojiFontSize()), start, end);
-        break;
-      case "mention-here":
-        setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getMentionHereColor()), start, end);
-        setSpan(ssb, new MarkdownBackgroundSpan(markdownStyle.getMentionHereBackgroundColor(), markdownStyle.getMentionHereBorderRadius(), start, end), start, end);
-        break;
-      case "mention-user":
-        // TODO: change mention color when it mentions current user
-        setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getMentionUserColor()), start, end);
-        setSpan(ssb, new MarkdownBackgroundSpan(markdownStyle.getMentionUserBackgroundColor(), markdownStyle.getMentionUserBorderRadius(), start, end), start, end);
-        break;
-      case "mention-report":
-        setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getMentionReportColor()), start, end);
-        setSpan(ssb, new MarkdownBackgroundSpan(markdownStyle.getMentionReportBackgroundColor(), markdownStyle.getMentionReportBorderRadius(), start, end), start, end);
-        break;
-      case "syntax":
-        // Check if this syntax is for inline formatting (bold/italic/strikethrough)
-        // Those should hide based on cursor adjacency, not line
-        boolean isInlineSyntax = isAdjacentToInlineType(markdownRange, allRanges);
-
-        if (isInlineSyntax) {
-          // Inline syntax: hide when cursor leaves the word zone
-          if (cursorPosition >= 0 && !shouldShowInlineSyntax(markdownRange, allRanges, cursorPosition)) {
-            setSpan(ssb, new MarkdownHiddenSpan(), start, end);
-          } else {
-            setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getSyntaxColor()), start, end);
-          }
-        } else {
-          // Block/line syntax (headings, lists, etc.): hide when cursor leaves the line
-          int syntaxLine = getLineNumber(text, start);
-          if (cursorLine >= 0 && syntaxLine != cursorLine) {
-            setSpan(ssb, new MarkdownHiddenSpan(), start, end);
-          } else {
-            setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getSyntaxColor()), start, end);
-          }
-        }
-        break;
-      case "link":
-        setSpan(ssb, new MarkdownUnderlineSpan(), start, end);
-        setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getLinkColor()), start, end);
-        break;
-      case "code":
-        setSpan(ssb, new MarkdownFontFamilySpan(markdownStyle.getCodeFontFamily(), mAssetManager), start, end);
-        setSpan(ssb, new MarkdownFontSizeSpan(markdownStyle.getCodeFontSize()), start, end);
-        setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getCodeColor()), start, end);
-        setSpan(ssb, new MarkdownBackgroundColorSpan(markdownStyle.getCodeBackgroundColor()), start, end);
-        break;
-      case "pre":
-        setSpan(ssb, new MarkdownFontFamilySpan(markdownStyle.getPreFontFamily(), mAssetManager), start, end);
-        setSpan(ssb, new MarkdownFontSizeSpan(markdownStyle.getPreFontSize()), start, end);
-        setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getPreColor()), start, end);
-        setSpan(ssb, new MarkdownCodeBlockSpan(markdownStyle.getPreBackgroundColor()), start, end);
-        break;
-      case "h1":
-        setSpan(ssb, new MarkdownBoldSpan(), start, end);
+  private void registerBuiltInRangeHandlers() {
+    mRangeHandlers[MarkdownRangeType.BOLD] = (ssb, ranges, index, style, cursorPosition) ->
+      setSpan(ssb, mRenderSpec.boldSpan, ranges.getStart(index), ranges.getEnd(index));
+    mRangeHandlers[MarkdownRangeType.ITALIC] = (ssb, ranges, index, style, cursorPosition) ->
+      setSpan(ssb, mRenderSpec.italicSpan, ranges.getStart(index), ranges.getEnd(index));
+    mRangeHandlers[MarkdownRangeType.STRIKETHROUGH] = (ssb, ranges, index, style, cursorPosition) ->
+      setSpan(ssb, mRenderSpec.strikethroughSpan, ranges.getStart(index), ranges.getEnd(index));
+    mRangeHandlers[MarkdownRangeType.EMOJI] = (ssb, ranges, index, style, cursorPosition) -> {
+      setSpan(ssb, mRenderSpec.emojiFontFamilySpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, mRenderSpec.emojiFontSizeSpan, ranges.getStart(index), ranges.getEnd(index));
+    };
+    mRangeHandlers[MarkdownRangeType.MENTION_HERE] = (ssb, ranges, index, style, cursorPosition) -> {
+      setSpan(ssb, mRenderSpec.mentionHereColorSpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, new MarkdownBackgroundSpan(style.getMentionHereBackgroundColor(), style.getMentionHereBorderRadius(), ranges.getStart(index), ranges.getEnd(index)), ranges.getStart(index), ranges.getEnd(index));
+    };
+    mRangeHandlers[MarkdownRangeType.MENTION_USER] = (ssb, ranges, index, style, cursorPosition) -> {
+      // TODO: change mention color when it mentions current user
+      setSpan(ssb, mRenderSpec.mentionUserColorSpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, new MarkdownBackgroundSpan(style.getMentionUserBackgroundColor(), style.getMentionUserBorderRadius(), ranges.getStart(index), ranges.getEnd(index)), ranges.getStart(index), ranges.getEnd(index));
+    };
+    mRangeHandlers[MarkdownRangeType.MENTION_REPORT] = (ssb, ranges, index, style, cursorPosition) -> {
+      setSpan(ssb, mRenderSpec.mentionReportColorSpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, new MarkdownBackgroundSpan(style.getMentionReportBackgroundColor(), style.getMentionReportBorderRadius(), ranges.getStart(index), ranges.getEnd(index)), ranges.getStart(index), ranges.getEnd(index));
+    };
+    mRangeHandlers[MarkdownRangeType.SYNTAX] = this::applySyntax;
+    mRangeHandlers[MarkdownRangeType.LINK] = (ssb, ranges, index, style, cursorPosition) -> {
+      setSpan(ssb, mRenderSpec.underlineSpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, mRenderSpec.linkColorSpan, ranges.getStart(index), ranges.getEnd(index));
+    };
+    mRangeHandlers[MarkdownRangeType.CODE] = (ssb, ranges, index, style, cursorPosition) -> {
+      setSpan(ssb, mRenderSpec.codeFontFamilySpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, mRenderSpec.codeFontSizeSpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, mRenderSpec.codeColorSpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, mRenderSpec.codeBackgroundColorSpan, ranges.getStart(index), ranges.getEnd(index));
+    };
+    mRangeHandlers[MarkdownRangeType.PRE] = (ssb, ranges, index, style, cursorPosition) -> {
+      setSpan(ssb, mRenderSpec.preFontFamilySpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, mRenderSpec.preFontSizeSpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, mRenderSpec.preColorSpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, mRenderSpec.preBackgroundSpan, ranges.getStart(index), ranges.getEnd(index));
+    };
+    mRangeHandlers[MarkdownRangeType.H1] = (ssb, ranges, index, style, cursorPosition) -> {
+      setSpan(ssb, mRenderSpec.boldSpan, ranges.getStart(index), ranges.getEnd(index));
+      if (!mIsBaseLineHeightResolved) {
         CustomLineHeightSpan[] spans = ssb.getSpans(0, ssb.length(), CustomLineHeightSpan.class);
-        if (spans.length >= 1) {
-          int lineHeight = spans[0].getLineHeight();
-          setSpan(ssb, new MarkdownLineHeightSpan(lineHeight * 1.5f), start, end);
-        }
-        // NOTE: size span must be set after line height span to avoid height jumps
-        setSpan(ssb, new MarkdownFontSizeSpan(markdownStyle.getH1FontSize()), start, end);
-        break;
-      case "h2":
-        setSpan(ssb, new MarkdownBoldSpan(), start, end);
-        setSpan(ssb, new MarkdownFontSizeSpan(markdownStyle.getH2FontSize()), start, end);
-        break;
-      case "h3":
-        setSpan(ssb, new MarkdownBoldSpan(), start, end);
-        setSpan(ssb, new MarkdownFontSizeSpan(markdownStyle.getH3FontSize()), start, end);
-        break;
-      case "h4":
-        setSpan(ssb, new MarkdownBoldSpan(), start, end);
-        setSpan(ssb, new MarkdownFontSizeSpan(markdownStyle.getH4FontSize()), start, end);
-        break;
-      case "h5":
-        setSpan(ssb, new MarkdownBoldSpan(), start, end);
-        setSpan(ssb, new MarkdownFontSizeSpan(markdownStyle.getH5FontSize()), start, end);
-        break;
-      case "h6":
-        setSpan(ssb, new MarkdownItalicSpan(), start, end);
-        setSpan(ssb, new MarkdownFontSizeSpan(markdownStyle.getH6FontSize()), start, end);
-        break;
-      case "blockquote":
-        MarkdownBlockquoteSpan blockquoteSpan = new MarkdownBlockquoteSpan(
-          markdownStyle.getBlockquoteBorderColor(),
-          markdownStyle.getBlockquoteBorderWidth(),
-          markdownStyle.getBlockquoteMarginLeft(),
-          markdownStyle.getBlockquotePaddingLeft(),
-          markdownRange.getDepth());
-        setSpan(ssb, blockquoteSpan, start, end);
-        break;
-      case "blockquote-marker":
-        // Hide the "> " marker
-        setSpan(ssb, new MarkdownHiddenSpan(), start, end);
-        break;
-      case "task-unchecked":
-        // Show unchecked box character
-        setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getSyntaxColor()), start, end);
-        break;
-      case "task-checked":
-        // Show checked box character with strikethrough on content
-        setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getSyntaxColor()), start, end);
-        break;
-      case "list-bullet":
-        // Style bullet marker
-        setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getSyntaxColor()), start, end);
-        break;
-      case "list-number":
-        // Style number marker
-        setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getSyntaxColor()), start, end);
-        break;
-      case "hr":
-        // Style horizontal rule - use strikethrough to create a line effect
-        setSpan(ssb, new MarkdownStrikethroughSpan(), start, end);
-        setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getBlockquoteBorderColor()), start, end);
-        break;
-      case "table":
-        // Table block - apply monospace font
-        setSpan(ssb, new MarkdownFontFamilySpan(markdownStyle.getCodeFontFamily(), mAssetManager), start, end);
-        setSpan(ssb, new MarkdownFontSizeSpan(markdownStyle.getCodeFontSize()), start, end);
-        break;
-      case "table-row":
-        // Table row - no special styling needed, handled by table type
-        break;
-      case "table-delimiter":
-        // Delimiter row - find containing table and check cursor position
-        {
-          int delimLine = getLineNumber(text, start);
-          int tableStartLine = -1;
-          int tableEndLine = -1;
-          for (MarkdownRange tableRange : allRanges) {
-            if ("table".equals(tableRange.getType())) {
-              int tStart = getLineNumber(text, tableRange.getStart());
-              int tEnd = getLineNumber(text, tableRange.getEnd() - 1);
-              if (delimLine >= tStart && delimLine <= tEnd) {
-                tableStartLine = tStart;
-                tableEndLine = tEnd;
-                break;
-              }
-            }
-          }
-          if (cursorLine >= tableStartLine && cursorLine <= tableEndLine) {
-            // Cursor in table - show as syntax
-            setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getSyntaxColor()), start, end);
-          } else {
-            // Hide delimiter row when not editing
-            setSpan(ssb, new MarkdownHiddenSpan(), start, end);
-          }
-        }
-        break;
-      case "table-cell":
-        // Table cell content - apply monospace font
-        setSpan(ssb, new MarkdownFontFamilySpan(markdownStyle.getCodeFontFamily(), mAssetManager), start, end);
-        setSpan(ssb, new MarkdownFontSizeSpan(markdownStyle.getCodeFontSize()), start, end);
+        mBaseLineHeight = spans.length >= 1 ? spans[0].getLineHeight() : -1;
+        mIsBaseLineHeightResolved = true;
+      }
+      if (mBaseLineHeight != -1) {
+        setSpan(ssb, new MarkdownLineHeightSpan(mBaseLineHeight * 1.5f), ranges.getStart(index), ranges.getEnd(index));
+      }
+      // NOTE: size span must be set after line height span to avoid height jumps
+      setSpan(ssb, mRenderSpec.headingFontSizeSpans[0], ranges.getStart(index), ranges.getEnd(index));
+    };
+    MarkdownRangeHandler headingHandler = (ssb, ranges, index, style, cursorPosition) -> {
+      setSpan(ssb, mRenderSpec.boldSpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, mRenderSpec.headingFontSizeSpans[ranges.getTypeId(index) - MarkdownRangeType.H1], ranges.getStart(index), ranges.getEnd(index));
+    };
+    mRangeHandlers[MarkdownRangeType.H2] = headingHandler;
+    mRangeHandlers[MarkdownRangeType.H3] = headingHandler;
+    mRangeHandlers[MarkdownRangeType.H4] = headingHandler;
+    mRangeHandlers[MarkdownRangeType.H5] = headingHandler;
+    mRangeHandlers[MarkdownRangeType.H6] = (ssb, ranges, index, style, cursorPosition) -> {
+      setSpan(ssb, mRenderSpec.italicSpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, mRenderSpec.headingFontSizeSpans[5], ranges.getStart(index), ranges.getEnd(index));
+    };
+    mRangeHandlers[MarkdownRangeType.BLOCKQUOTE] = (ssb, ranges, index, style, cursorPosition) ->
+      setSpan(ssb, mRenderSpec.getBlockquoteSpan(ranges.getDepth(index)), ranges.getStart(index), ranges.getEnd(index));
+    // Hide the "> " marker
+    mRangeHandlers[MarkdownRangeType.BLOCKQUOTE_MARKER] = (ssb, ranges, index, style, cursorPosition) ->
+      setSpan(ssb, mRenderSpec.hiddenSpan, ranges.getStart(index), ranges.getEnd(index));
+    // Checkboxes and list markers are styled like syntax
+    MarkdownRangeHandler syntaxColorHandler = (ssb, ranges, index, style, cursorPosition) ->
+      setSpan(ssb, mRenderSpec.syntaxColorSpan, ranges.getStart(index), ranges.getEnd(index));
+    mRangeHandlers[MarkdownRangeType.TASK_UNCHECKED] = syntaxColorHandler;
+    mRangeHandlers[MarkdownRangeType.TASK_CHECKED] = syntaxColorHandler;
+    mRangeHandlers[MarkdownRangeType.LIST_BULLET] = syntaxColorHandler;
+    mRangeHandlers[MarkdownRangeType.LIST_NUMBER] = syntaxColorHandler;
+    // Style horizontal rule - use strikethrough to create a line effect
+    mRangeHandlers[MarkdownRangeType.HR] = (ssb, ranges, index, style, cursorPosition) -> {
+      setSpan(ssb, mRenderSpec.strikethroughSpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, mRenderSpec.blockquoteBorderColorSpan, ranges.getStart(index), ranges.getEnd(index));
+    };
+    // Table blocks and cells use monospace font, rows need no styling of their own
+    MarkdownRangeHandler monospaceHandler = (ssb, ranges, index, style, cursorPosition) -> {
+      setSpan(ssb, mRenderSpec.codeFontFamilySpan, ranges.getStart(index), ranges.getEnd(index));
+      setSpan(ssb, mRenderSpec.codeFontSizeSpan, ranges.getStart(index), ranges.getEnd(index));
+    };
+    mRangeHandlers[MarkdownRangeType.TABLE] = monospaceHandler;
+    mRangeHandlers[MarkdownRangeType.TABLE_CELL] = monospaceHandler;
+    // Delimiter rows and pipes are shown as syntax while the cursor is in the table, hidden otherwise
+    mRangeHandlers[MarkdownRangeType.TABLE_DELIMITER] = this::applyTableSyntax;
+    mRangeHandlers[MarkdownRangeType.TABLE_PIPE] = this::applyTableSyntax;
+  }
+
+  private void applySyntax(@NonNull SpannableStringBuilder ssb, @NonNull MarkdownRanges markdownRanges, int index, @NonNull MarkdownStyle markdownStyle, int cursorPosition) {
+    int start = markdownRanges.getStart(index);
+    int end = markdownRanges.getEnd(index);
+    // Check if this syntax is for inline formatting (bold/italic/strikethrough)
+    // Those should hide based on cursor adjacency, not line
+    if (mInlineSyntaxIndex == null || mInlineSyntaxIndex.getMarkdownRanges() != markdownRanges) {
+      mInlineSyntaxIndex = new MarkdownInlineSyntaxIndex(markdownRanges);
+    }
+
+    if (mInlineSyntaxIndex.isInlineSyntax(index)) {
+      // Inline syntax: hide when cursor leaves the word zone
+      // Cursor is "in the zone" if it's anywhere within the formatted region
+      // This includes the syntax characters and content, but NOT the position after
+      int zoneStart = mInlineSyntaxIndex.getZoneStart(index);
+      int zoneEnd = mInlineSyntaxIndex.getZoneEnd(index);
+      boolean isHidden = cursorPosition >= 0 && (cursorPosition < zoneStart || cursorPosition > zoneEnd);
+      setSyntaxSpan(ssb, isHidden, start, end, zoneStart, zoneEnd);
+    } else {
+      // Block/line syntax (headings, lists, etc.): hide when cursor leaves the line
+      int syntaxLine = mLineIndex.getLineNumber(start);
+      boolean isHidden = mCursorLine >= 0 && syntaxLine != mCursorLine;
+      setSyntaxSpan(ssb, isHidden, start, end, mLineIndex.getLineStart(start), mLineIndex.getLineEnd(start));
+    }
+  }
+
+  private void applyTableSyntax(@NonNull SpannableStringBuilder ssb, @NonNull MarkdownRanges markdownRanges, int index, @NonNull MarkdownStyle markdownStyle, int cursorPosition) {
+    int start = markdownRanges.getStart(index);
+    int end = markdownRanges.getEnd(index);
+    // Find containing table and check cursor position
+    int syntaxLine = mLineIndex.getLineNumber(start);
+    int tableStartLine = -1;
+    int tableEndLine = -1;
+    // Outside of tables syntax is never shown while there's a cursor
+    int zoneStart = 0;
+    int zoneEnd = -1;
+    if (!mIsTableBoundsResolved) {
+      resolveTableBounds(markdownRanges);
+    }
+    for (int i = 0; i < mTableCount; i++) {
+      int tStart = mTableBounds[i * 4];
+      int tEnd = mTableBounds[i * 4 + 1];
+      if (syntaxLine >= tStart && syntaxLine <= tEnd) {
+        tableStartLine = tStart;
+        tableEndLine = tEnd;
+        zoneStart = mTableBounds[i * 4 + 2];
+        zoneEnd = mTableBounds[i * 4 + 3];
         break;
-      case "table-pipe":
-        // Pipe characters - style as syntax or hide based on cursor position
-        {
-          int pipeLine = getLineNumber(text, start);
-          int tableStartLine = -1;
-          int tableEndLine = -1;
-          for (MarkdownRange tableRange : allRanges) {
-            if ("table".equals(tableRange.getType())) {
-              int tStart = getLineNumber(text, tableRange.getStart());
-              int tEnd = getLineNumber(text, tableRange.getEnd() - 1);
-              if (pipeLine >= tStart && pipeLine <= tEnd) {
-                tableStartLine = tStart;
-                tableEndLine = tEnd;
-                break;
-              }
-            }
-          }
-          if (cursorLine >= tableStartLine && cursorLine <= tableEndLine) {
-            // Cursor in table - show pipes as syntax
-            setSpan(ssb, new MarkdownForegroundColorSpan(markdownStyle.getSyntaxColor()), start, end);
-          } else {
-            // Hide pipes when not editing - for cleaner rendered appearance
-            setSpan(ssb, new MarkdownHiddenSpan(), start, end);
-          }
+      }
+    }
+    // Shown as syntax while the cursor is in the table, hidden when not editing for cleaner rendered appearance
+    boolean isHidden = mCursorLine < tableStartLine || mCursorLine > tableEndLine;
+    setSyntaxSpan(ssb, isHidden, start, end, zoneStart, zoneEnd);
+  }
+
+  /**
+   * Stores the first and last line of each table, and the offsets where those lines start and end.
+   */
+  private void resolveTableBounds(@NonNull MarkdownRanges markdownRanges) {
+    mTableCount = 0;
+    for (int i = 0; i < markdownRanges.size(); i++) {
+      if (markdownRanges.getTypeId(i) == MarkdownRangeType.TABLE) {
+        if (mTableBounds == null || mTableBounds.length < (mTableCount + 1) * 4) {
+          mTableBounds = mTableBounds == null ? new int[16] : Arrays.copyOf(mTableBounds, mTableBounds.length * 2);
         }
-        break;
+        int start = markdownRanges.getStart(i);
+        int last = markdownRanges.getEnd(i) - 1;
+        mTableBounds[mTableCount * 4] = mLineIndex.getLineNumber(start);
+        mTableBounds[mTableCount * 4 + 1] = mLineIndex.getLineNumber(last);
+        mTableBounds[mTableCount * 4 + 2] = mLineIndex.getLineStart(start);
+        mTableBounds[mTableCount * 4 + 3] = mLineIndex.getLineEnd(last);
+        mTableCount++;
+      }
     }
+    mIsTableBoundsResolved = true;
   }
 
+  /**
+   * Adds syntax that is shown while the cursor is within [zoneStart, zoneEnd] to the plan, see
+   * updateCursorPosition.
+   */
+  private void setSyntaxSpan(@NonNull SpannableStringBuilder ssb, boolean isHidden, int start, int end, int zoneStart, int zoneEnd) {
+    // Planned outside of the styled region as well, so that cursor updates can toggle it
+    planSpan(isHidden ? mRenderSpec.hiddenSpan : mRenderSpec.syntaxColorSpan, start, end);
+    mPlannedRevealZoneStarts[mPlannedSpanCount - 1] = zoneStart;
+    mPlannedRevealZoneEnds[mPlannedSpanCount - 1] = zoneEnd;
+  }
+
+  /**
+   * Adds `span` to the plan of the format in progress unless it's outside of the styled region and
+   * doesn't affect layout, see setStyledRegion.
+   */
   private void setSpan(@NonNull SpannableStringBuilder ssb, @NonNull MarkdownSpan span, int start, int end) {
-    ssb.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    if (isOutsideStyledRegion(start, end) && !affectsLayout(span)) {
+      return;
+    }
+    planSpan(span, start, end);
+  }
+
+  /**
+   * Adds `span` to the plan of the format in progress, see applySpans.
+   */
+  private void planSpan(@NonNull MarkdownSpan span, int start, int end) {
+    if (mPlannedSpanCount == mPlannedSpans.length) {
+      int capacity = mPlannedSpanCount * 2;
+      mPlannedSpans = Arrays.copyOf(mPlannedSpans, capacity);
+      mPlannedSpanStarts = Arrays.copyOf(mPlannedSpanStarts, capacity);
+      mPlannedSpanEnds = Arrays.copyOf(mPlannedSpanEnds, capacity);
+      mPlannedRevealZoneStarts = Arrays.copyOf(mPlannedRevealZoneStarts, capacity);
+      mPlannedRevealZoneEnds = Arrays.copyOf(mPlannedRevealZoneEnds, capacity);
+      mAppliedSpans = Arrays.copyOf(mAppliedSpans, capacity);
+    }
+    mPlannedSpans[mPlannedSpanCount] = span;
+    mPlannedSpanStarts[mPlannedSpanCount] = start;
+    mPlannedSpanEnds[mPlannedSpanCount] = end;
+    mPlannedRevealZoneStarts[mPlannedSpanCount] = NO_REVEAL_ZONE;
+    mPlannedSpanCount++;
   }
 }
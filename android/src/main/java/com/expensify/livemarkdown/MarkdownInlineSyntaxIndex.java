@@ -0,0 +1,132 @@
+package com.expensify.livemarkdown;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Reveal zones of inline syntax in parsed ranges. Syntax is inline when it's adjacent to bold,
+ * italic, strikethrough or link content, and its zone covers the opening syntax, the content and
+ * the closing syntax. Built once per parse result, so that formatting doesn't scan all ranges for
+ * every syntax range.
+ */
+final class MarkdownInlineSyntaxIndex {
+  private final @NonNull MarkdownRanges mMarkdownRanges;
+
+  // Indexed by range index, zone start is -1 for ranges that aren't inline syntax
+  private final int[] mZoneStarts;
+  private final int[] mZoneEnds;
+
+  MarkdownInlineSyntaxIndex(@NonNull MarkdownRanges markdownRanges) {
+    mMarkdownRanges = markdownRanges;
+    int size = markdownRanges.size();
+    mZoneStarts = new int[size];
+    mZoneEnds = new int[size];
+    Arrays.fill(mZoneStarts, -1);
+
+    // Range indexes keyed by start and by end, ranges with the same position stay in index order
+    long[] startKeys = new long[size];
+    long[] endKeys = new long[size];
+    for (int i = 0; i < size; i++) {
+      startKeys[i] = getKey(markdownRanges.getStart(i), i);
+      endKeys[i] = getKey(markdownRanges.getEnd(i), i);
+    }
+    Arrays.sort(startKeys);
+    Arrays.sort(endKeys);
+
+    for (int i = 0; i < size; i++) {
+      if (markdownRanges.getTypeId(i) != MarkdownRangeType.SYNTAX) {
+        continue;
+      }
+      // The first inline content that starts where the syntax ends or ends where the syntax starts
+      int contentIndex = findFirstInline(startKeys, markdownRanges.getEnd(i));
+      int contentEndingIndex = findFirstInline(endKeys, markdownRanges.getStart(i));
+      if (contentIndex == -1 || (contentEndingIndex != -1 && contentEndingIndex < contentIndex)) {
+        contentIndex = contentEndingIndex;
+      }
+      if (contentIndex == -1) {
+        continue;
+      }
+
+      // The last syntax ending where the content starts opens the zone, the last one starting
+      // where it ends closes it
+      int contentStart = markdownRanges.getStart(contentIndex);
+      int contentEnd = markdownRanges.getEnd(contentIndex);
+      int openingIndex = findLastSyntax(endKeys, contentStart);
+      int closingIndex = findLastSyntax(startKeys, contentEnd);
+      mZoneStarts[i] = openingIndex != -1 ? markdownRanges.getStart(openingIndex) : contentStart;
+      mZoneEnds[i] = closingIndex != -1 ? markdownRanges.getEnd(closingIndex) : contentEnd;
+    }
+  }
+
+  @NonNull
+  MarkdownRanges getMarkdownRanges() {
+    return mMarkdownRanges;
+  }
+
+  boolean isInlineSyntax(int index) {
+    return mZoneStarts[index] != -1;
+  }
+
+  int getZoneStart(int index) {
+    return mZoneStarts[index];
+  }
+
+  int getZoneEnd(int index) {
+    return mZoneEnds[index];
+  }
+
+  // Inline formatting types that should hide based on cursor adjacency, not line
+  private static boolean isInlineType(int typeId) {
+    return typeId == MarkdownRangeType.BOLD || typeId == MarkdownRangeType.ITALIC || typeId == MarkdownRangeType.STRIKETHROUGH || typeId == MarkdownRangeType.LINK;
+  }
+
+  private int findFirstInline(long[] keys, int position) {
+    for (int i = findFirstKey(keys, position); i < keys.length && getPosition(keys[i]) == position; i++) {
+      if (isInlineType(mMarkdownRanges.getTypeId(getIndex(keys[i])))) {
+        return getIndex(keys[i]);
+      }
+    }
+    return -1;
+  }
+
+  private int findLastSyntax(long[] keys, int position) {
+    int index = -1;
+    for (int i = findFirstKey(keys, position); i < keys.length && getPosition(keys[i]) == position; i++) {
+      if (mMarkdownRanges.getTypeId(getIndex(keys[i])) == MarkdownRangeType.SYNTAX) {
+        index = getIndex(keys[i]);
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Returns the index of the first key at `position` or after it.
+   */
+  private static int findFirstKey(long[] keys, int position) {
+    long key = getKey(position, 0);
+    int low = 0;
+    int high = keys.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (keys[middle] < key) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private static long getKey(int position, int index) {
+    return ((long) position << 32) | index;
+  }
+
+  private static int getPosition(long key) {
+    return (int) (key >> 32);
+  }
+
+  private static int getIndex(long key) {
+    return (int) key;
+  }
+}
@@ -0,0 +1,134 @@
+package com.expensify.livemarkdown;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.systrace.Systrace;
+
+import java.util.Arrays;
+
+/**
+ * Offsets of line starts in a text, answering offset-to-line queries by binary search. Updated from
+ * the edit that turned the previous text into the new one, so a keystroke only shifts the offsets
+ * of following lines instead of scanning the whole text for line breaks.
+ */
+final class MarkdownLineIndex {
+  // Sorted offsets after each '\n', the first line starts at 0 and isn't stored
+  private int[] mLineStarts = new int[16];
+  private int mLineBreakCount;
+  private @NonNull String mText = "";
+
+  /**
+   * Updates the index for `text`. `editStart` is -1 when the edit isn't known, otherwise the edit
+   * must turn the text of the last update into `text`. Only lengths are checked, an edit that
+   * doesn't fit them builds the index again.
+   */
+  void update(@NonNull String text, int editStart, int removedLength, int insertedLength) {
+    if (editStart == -1 || !isEditOf(text, editStart, removedLength, insertedLength)) {
+      build(text);
+      return;
+    }
+
+    try {
+      Systrace.beginSection(0, "updateLineIndex");
+      // Line breaks within the removed text are at offsets (editStart, editStart + removedLength]
+      int first = findFirstLineStartAfter(editStart);
+      int last = findFirstLineStartAfter(editStart + removedLength);
+      int insertedLineBreakCount = 0;
+      for (int i = editStart; i < editStart + insertedLength; i++) {
+        if (text.charAt(i) == '\n') {
+          insertedLineBreakCount++;
+        }
+      }
+
+      int count = mLineBreakCount - (last - first) + insertedLineBreakCount;
+      if (count > mLineStarts.length) {
+        mLineStarts = Arrays.copyOf(mLineStarts, Math.max(count, mLineStarts.length * 2));
+      }
+      System.arraycopy(mLineStarts, last, mLineStarts, first + insertedLineBreakCount, mLineBreakCount - last);
+      int delta = insertedLength - removedLength;
+      for (int i = first + insertedLineBreakCount; i < count; i++) {
+        mLineStarts[i] += delta;
+      }
+      int index = first;
+      for (int i = editStart; i < editStart + insertedLength; i++) {
+        if (text.charAt(i) == '\n') {
+          mLineStarts[index++] = i + 1;
+        }
+      }
+      mLineBreakCount = count;
+      mText = text;
+    } finally {
+      Systrace.endSection(0);
+    }
+  }
+
+  @NonNull
+  String getText() {
+    return mText;
+  }
+
+  /**
+   * Get the line number (0-indexed) for a given character position.
+   */
+  int getLineNumber(int position) {
+    if (position < 0 || position > mText.length()) {
+      return 0;
+    }
+    return findFirstLineStartAfter(position);
+  }
+
+  /**
+   * Returns the offset of the start of the line containing `position`.
+   */
+  int getLineStart(int position) {
+    int line = findFirstLineStartAfter(position);
+    return line > 0 ? mLineStarts[line - 1] : 0;
+  }
+
+  /**
+   * Returns the offset of the line break ending the line containing `position`, or the text length
+   * for the last line.
+   */
+  int getLineEnd(int position) {
+    int line = findFirstLineStartAfter(position);
+    return line < mLineBreakCount ? mLineStarts[line] - 1 : mText.length();
+  }
+
+  private void build(@NonNull String text) {
+    try {
+      Systrace.beginSection(0, "buildLineIndex");
+      mLineBreakCount = 0;
+      for (int i = text.indexOf('\n'); i != -1; i = text.indexOf('\n', i + 1)) {
+        if (mLineBreakCount == mLineStarts.length) {
+          mLineStarts = Arrays.copyOf(mLineStarts, mLineBreakCount * 2);
+        }
+        mLineStarts[mLineBreakCount++] = i + 1;
+      }
+      mText = text;
+    } finally {
+      Systrace.endSection(0);
+    }
+  }
+
+  private boolean isEditOf(@NonNull String text, int editStart, int removedLength, int insertedLength) {
+    int suffixLength = mText.length() - editStart - removedLength;
+    return editStart >= 0 && suffixLength >= 0 && text.length() == editStart + insertedLength + suffixLength;
+  }
+
+  /**
+   * Returns the number of line starts at or before `position`, which is the line containing it.
+   */
+  private int findFirstLineStartAfter(int position) {
+    int low = 0;
+    int high = mLineBreakCount;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (mLineStarts[middle] <= position) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,220 @@
+package com.expensify.livemarkdown;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of parser results keyed by text fingerprint (hash and length) and parserId.
+ * Entries are evicted in least-recently-used order once their estimated size exceeds the budget.
+ * Thread-safe, keys are spread over segments with a lock of their own, so that parsers on different
+ * threads rarely wait for each other, while the budget and the LRU order span all of them.
+ */
+public class MarkdownParseCache {
+  public static final int DEFAULT_MAX_SIZE_BYTES = 1024 * 1024;
+
+  private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+  // Power of two, so that the segment index is a mask of the key hash
+  private static final int SEGMENT_COUNT = 4;
+
+  private static class Key {
+    private final int mHash;
+    private final int mLength;
+    private final int mParserId;
+
+    Key(@NonNull String text, int parserId) {
+      mHash = text.hashCode();
+      mLength = text.length();
+      mParserId = parserId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return mHash == key.mHash && mLength == key.mLength && mParserId == key.mParserId;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * mHash + mLength) + mParserId;
+    }
+  }
+
+  private static class Entry {
+    private final @NonNull String mText;
+    private final @NonNull MarkdownRanges mMarkdownRanges;
+    private final int mSizeBytes;
+    // Value of mAccessClock when the entry was last put or hit, guarded by its segment
+    private long mAccessTime;
+
+    Entry(@NonNull String text, @NonNull MarkdownRanges markdownRanges) {
+      mText = text;
+      mMarkdownRanges = markdownRanges;
+      mSizeBytes = ENTRY_OVERHEAD_BYTES + text.length() * 2 + markdownRanges.getSizeBytes();
+    }
+  }
+
+  /**
+   * Part of the cache guarded by its own monitor. The budget and the LRU order are shared by all
+   * segments, entries keep their access time so that the oldest of all can be evicted.
+   */
+  private class Segment {
+    private final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mHitCount;
+    private long mMissCount;
+
+    @Nullable
+    synchronized MarkdownRanges get(@NonNull Key key, @NonNull String text) {
+      Entry entry = mEntries.get(key);
+      // Fingerprints can collide, so the text itself decides whether it's a hit
+      if (entry != null && entry.mText.equals(text)) {
+        entry.mAccessTime = mAccessClock.incrementAndGet();
+        mHitCount++;
+        return entry.mMarkdownRanges;
+      }
+      mMissCount++;
+      return null;
+    }
+
+    synchronized void put(@NonNull Key key, @NonNull Entry entry) {
+      entry.mAccessTime = mAccessClock.incrementAndGet();
+      Entry previousEntry = mEntries.put(key, entry);
+      if (previousEntry != null) {
+        mSizeBytes.addAndGet(-previousEntry.mSizeBytes);
+      } else {
+        mEntryCount.incrementAndGet();
+      }
+      mSizeBytes.addAndGet(entry.mSizeBytes);
+    }
+
+    /**
+     * Returns the access time of the least recently used entry, or Long.MAX_VALUE when empty.
+     */
+    synchronized long getEldestAccessTime() {
+      return mEntries.isEmpty() ? Long.MAX_VALUE : mEntries.values().iterator().next().mAccessTime;
+    }
+
+    /**
+     * Removes the least recently used entry unless it was used after `accessTime`.
+     */
+    synchronized void removeEldest(long accessTime) {
+      Iterator<Entry> iterator = mEntries.values().iterator();
+      if (!iterator.hasNext()) {
+        return;
+      }
+      Entry entry = iterator.next();
+      if (entry.mAccessTime == accessTime) {
+        iterator.remove();
+        mSizeBytes.addAndGet(-entry.mSizeBytes);
+        mEntryCount.decrementAndGet();
+      }
+    }
+
+    synchronized void clear() {
+      for (Entry entry : mEntries.values()) {
+        mSizeBytes.addAndGet(-entry.mSizeBytes);
+        mEntryCount.decrementAndGet();
+      }
+      mEntries.clear();
+    }
+  }
+
+  private final Segment[] mSegments = new Segment[SEGMENT_COUNT];
+  private final AtomicLong mAccessClock = new AtomicLong();
+  private final AtomicInteger mSizeBytes = new AtomicInteger();
+  private final AtomicInteger mEntryCount = new AtomicInteger();
+  private volatile int mMaxSizeBytes;
+
+  public MarkdownParseCache(int maxSizeBytes) {
+    mMaxSizeBytes = maxSizeBytes;
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      mSegments[i] = new Segment();
+    }
+  }
+
+  private @NonNull Segment getSegment(@NonNull Key key) {
+    int hash = key.hashCode();
+    return mSegments[(hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1)];
+  }
+
+  /**
+   * Evicts the least recently used entries of all segments until the cache fits its budget. Only
+   * one segment is locked at a time, an entry used while looking for the oldest one is kept.
+   */
+  private void trimToSize() {
+    // Always keep the most recent entry, even if it alone exceeds the budget
+    while (mSizeBytes.get() > mMaxSizeBytes && mEntryCount.get() > 1) {
+      Segment eldestSegment = null;
+      long eldestAccessTime = Long.MAX_VALUE;
+      for (Segment segment : mSegments) {
+        long accessTime = segment.getEldestAccessTime();
+        if (accessTime < eldestAccessTime) {
+          eldestSegment = segment;
+          eldestAccessTime = accessTime;
+        }
+      }
+      if (eldestSegment == null) {
+        return;
+      }
+      eldestSegment.removeEldest(eldestAccessTime);
+    }
+  }
+
+  @Nullable
+  public MarkdownRanges get(@NonNull String text, int parserId) {
+    Key key = new Key(text, parserId);
+    return getSegment(key).get(key, text);
+  }
+
+  public void put(@NonNull String text, int parserId, @NonNull MarkdownRanges markdownRanges) {
+    Key key = new Key(text, parserId);
+    getSegment(key).put(key, new Entry(text, markdownRanges));
+    trimToSize();
+  }
+
+  public void setMaxSizeBytes(int maxSizeBytes) {
+    mMaxSizeBytes = maxSizeBytes;
+    trimToSize();
+  }
+
+  public void clear() {
+    for (Segment segment : mSegments) {
+      segment.clear();
+    }
+  }
+
+  public int getSizeBytes() {
+    return mSizeBytes.get();
+  }
+
+  public long getHitCount() {
+    long hitCount = 0;
+    for (Segment segment : mSegments) {
+      synchronized (segment) {
+        hitCount += segment.mHitCount;
+      }
+    }
+    return hitCount;
+  }
+
+  public long getMissCount() {
+    long missCount = 0;
+    for (Segment segment : mSegments) {
+      synchronized (segment) {
+        missCount += segment.mMissCount;
+      }
+    }
+    return missCount;
+  }
+}
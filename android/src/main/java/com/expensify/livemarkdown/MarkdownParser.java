@@ -1,92 +1,472 @@
 package com.expensify.livemarkdown;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.util.RNLog;
-import com.facebook.soloader.SoLoader;
 import com.facebook.systrace.Systrace;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MarkdownParser {
-  static {
-    SoLoader.loadLibrary("livemarkdown");
-  }
+  // Characters that the parser pairs with each other regardless of block boundaries
+  private static final String INLINE_DELIMITERS = "*_~`[]()!";
+
+  // Characters that can make up the block markers at the start of a line, e.g. `> - [x] ` or `## `
+  private static final String BLOCK_MARKER_CHARS = " \t#>-+*_~`[]()!.xX0123456789";
+
+  // Characters that end a line for the parser's block rules
+  private static final String LINE_BREAKS = "\n\r\u2028\u2029";
+
+  // Below this length a full parse is cheap enough that splicing isn't worth it
+  private static final int INCREMENTAL_PARSE_MIN_LENGTH = 2048;
+
+  private static final MarkdownRanges EMPTY_MARKDOWN_RANGES = new MarkdownRanges(1);
+
+  private static volatile boolean sIncrementalParsingEnabled = true;
+  private static volatile MarkdownParserEngine sDefaultParserEngine;
+  private static final Map<Integer, MarkdownParserEngine> sParserEngines = new ConcurrentHashMap<>();
+
+  // Shared by all parsers, so text measured by Fabric isn't parsed again for display
+  private static final MarkdownParseCache sParseCache = new MarkdownParseCache(MarkdownParseCache.DEFAULT_MAX_SIZE_BYTES);
 
   private final @NonNull ReactContext mReactContext;
-  private String mPrevText;
-  private int mPrevParserId;
-  private List<MarkdownRange> mPrevMarkdownRanges;
+
+  // Engine output before validation, reused between parses
+  private final @NonNull MarkdownRanges mEngineMarkdownRanges = new MarkdownRanges();
+
+  // Parses that reused ranges outside of the edited blocks instead of parsing the whole text
+  private long mIncrementalParseCount;
+
+  // Start of a code fence that is never closed in the text of mFenceMarkdownRanges, or -1. Carried
+  // over to the result of each incremental parse, so that only the first one scans the text for it
+  private @Nullable MarkdownRanges mFenceMarkdownRanges;
+  private int mUnclosedFenceStart = -1;
 
   public MarkdownParser(@NonNull ReactContext reactContext) {
     mReactContext = reactContext;
   }
 
-  private native String nativeParse(@NonNull String text, int parserId);
+  /**
+   * Sets the memory budget of the parse cache shared by all parsers.
+   */
+  public static void setParseCacheMaxSizeBytes(int maxSizeBytes) {
+    sParseCache.setMaxSizeBytes(maxSizeBytes);
+  }
+
+  /**
+   * Enables reparsing only the blocks touched by an edit, which is the default. This assumes that
+   * the parser matches block-level syntax line by line, like the default parser does, so apps with
+   * a parser that doesn't should disable it.
+   */
+  public static void setIncrementalParsingEnabled(boolean enabled) {
+    sIncrementalParsingEnabled = enabled;
+  }
+
+  /**
+   * Sets the engine used for parserIds without an engine of their own. Defaults to running the
+   * worklet registered from JS. Should be called before any input is rendered, as cached results
+   * of the previous engine are not invalidated.
+   */
+  public static void setDefaultParserEngine(@NonNull MarkdownParserEngine parserEngine) {
+    sDefaultParserEngine = parserEngine;
+  }
+
+  /**
+   * Sets the engine used for `parserId`, or removes it when `parserEngine` is null. For instance,
+   * JavaMarkdownParserEngine parses without entering the worklet runtime.
+   */
+  public static void setParserEngine(int parserId, @Nullable MarkdownParserEngine parserEngine) {
+    if (parserEngine == null) {
+      sParserEngines.remove(parserId);
+    } else {
+      sParserEngines.put(parserId, parserEngine);
+    }
+  }
+
+  private static @NonNull MarkdownParserEngine getParserEngine(int parserId) {
+    MarkdownParserEngine parserEngine = sParserEngines.get(parserId);
+    return parserEngine != null ? parserEngine : getDefaultParserEngine();
+  }
+
+  static @NonNull MarkdownParserEngine getDefaultParserEngine() {
+    if (sDefaultParserEngine == null) {
+      synchronized (MarkdownParser.class) {
+        if (sDefaultParserEngine == null) {
+          sDefaultParserEngine = new WorkletMarkdownParserEngine();
+        }
+      }
+    }
+    return sDefaultParserEngine;
+  }
 
-  public synchronized List<MarkdownRange> parse(@NonNull String text, int parserId) {
+  /**
+   * Returns the parse cache, which is shared by all parsers.
+   */
+  public @NonNull MarkdownParseCache getParseCache() {
+    return sParseCache;
+  }
+
+  /**
+   * Returns the number of calls to parseIncremental that parsed only the blocks touched by the edit.
+   */
+  public synchronized long getIncrementalParseCount() {
+    return mIncrementalParseCount;
+  }
+
+  public synchronized MarkdownRanges parse(@NonNull String text, int parserId) {
     try {
       Systrace.beginSection(0, "parse");
 
-      if (text.equals(mPrevText) && parserId == mPrevParserId) {
-        return mPrevMarkdownRanges;
+      MarkdownRanges cachedMarkdownRanges = sParseCache.get(text, parserId);
+      if (cachedMarkdownRanges != null) {
+        return cachedMarkdownRanges;
+      }
+
+      return parseAndCache(text, parserId);
+    } finally {
+      Systrace.endSection(0);
+    }
+  }
+
+  /**
+   * Parses `text` with the engine without reading or filling the parse cache, for texts that no
+   * input shows, like the warm-up ones, so that they don't evict results of real texts. Errors of
+   * the engine are thrown.
+   */
+  synchronized MarkdownRanges parseUncached(@NonNull String text, int parserId) {
+    runParserEngine(text, parserId);
+    MarkdownRanges markdownRanges = new MarkdownRanges(mEngineMarkdownRanges.size());
+    addValidRanges(mEngineMarkdownRanges, 0, text.length(), markdownRanges);
+    return markdownRanges;
+  }
+
+  /**
+   * Parses all `texts` with a single call to the engine, which lets the worklet engine cross into
+   * native code once for the whole batch. Results are in the same order as `texts`.
+   */
+  public synchronized MarkdownRanges[] parseBatch(@NonNull String[] texts, int parserId) {
+    try {
+      Systrace.beginSection(0, "parseBatch");
+
+      MarkdownRanges[] markdownRanges = new MarkdownRanges[texts.length];
+      int missCount = 0;
+      for (int i = 0; i < texts.length; i++) {
+        markdownRanges[i] = sParseCache.get(texts[i], parserId);
+        if (markdownRanges[i] == null) {
+          missCount++;
+        }
+      }
+      if (missCount <= 1) {
+        for (int i = 0; i < texts.length; i++) {
+          if (markdownRanges[i] == null) {
+            markdownRanges[i] = parseAndCache(texts[i], parserId);
+          }
+        }
+        return markdownRanges;
+      }
+
+      String[] missedTexts = new String[missCount];
+      MarkdownRanges[] engineMarkdownRanges = new MarkdownRanges[missCount];
+      for (int i = 0, j = 0; i < texts.length; i++) {
+        if (markdownRanges[i] == null) {
+          missedTexts[j] = texts[i];
+          engineMarkdownRanges[j] = new MarkdownRanges();
+          j++;
+        }
       }
 
-      String json;
       try {
-        Systrace.beginSection(0, "nativeParse");
-        json = nativeParse(text, parserId);
+        Systrace.beginSection(0, "parserEngine");
+        getParserEngine(parserId).parseBatch(missedTexts, parserId, engineMarkdownRanges);
       } catch (Exception e) {
-        // Skip formatting, runGuarded will show the error in LogBox
-        mPrevText = text;
-        mPrevParserId = parserId;
-        mPrevMarkdownRanges = Collections.emptyList();
-        return mPrevMarkdownRanges;
+        // Parse one by one, so that an error affects only the text that caused it
+        for (int i = 0; i < texts.length; i++) {
+          if (markdownRanges[i] == null) {
+            markdownRanges[i] = parseAndCache(texts[i], parserId);
+          }
+        }
+        return markdownRanges;
       } finally {
         Systrace.endSection(0);
       }
 
-      List<MarkdownRange> markdownRanges = new LinkedList<>();
-      try {
-        Systrace.beginSection(0, "markdownRanges");
-        JSONArray ranges = new JSONArray(json);
-        for (int i = 0; i < ranges.length(); i++) {
-          JSONObject range = ranges.getJSONObject(i);
-          String type = range.getString("type");
-          int start = range.getInt("start");
-          int length = range.getInt("length");
-          int depth = range.optInt("depth", 1);
-          int tableColumn = range.optInt("tableColumn", -1);
-          String tableAlignment = range.optString("tableAlignment", null);
-          int tableColumnCount = range.optInt("tableColumnCount", 0);
-          if (length == 0 || start + length > text.length()) {
-            continue;
-          }
-          markdownRanges.add(new MarkdownRange(type, start, length, depth, tableColumn, tableAlignment, tableColumnCount));
+      for (int i = 0, j = 0; i < texts.length; i++) {
+        if (markdownRanges[i] != null) {
+          continue;
         }
-      } catch (JSONException e) {
-        RNLog.w(mReactContext, "[react-native-live-markdown] Incorrect schema of worklet parser output: " + e.getMessage());
-        mPrevText = text;
-        mPrevParserId = parserId;
-        mPrevMarkdownRanges = Collections.emptyList();
-        return mPrevMarkdownRanges;
+        MarkdownRanges validMarkdownRanges = new MarkdownRanges(engineMarkdownRanges[j].size());
+        engineMarkdownRanges[j].sortByStart();
+        addValidRanges(engineMarkdownRanges[j], 0, texts[i].length(), validMarkdownRanges);
+        sParseCache.put(texts[i], parserId, validMarkdownRanges);
+        markdownRanges[i] = validMarkdownRanges;
+        j++;
+      }
+      return markdownRanges;
+    } finally {
+      Systrace.endSection(0);
+    }
+  }
+
+  /**
+   * Parses `text` that was created from `prevText` by replacing `removedLength` characters at
+   * `editStart` with `insertedLength` new ones. Only the blocks touched by the edit are sent to
+   * the parser, ranges of `prevMarkdownRanges` outside of them are reused with shifted offsets.
+   * Falls back to a full parse whenever the edit could change ranges outside of those blocks.
+   */
+  public synchronized MarkdownRanges parseIncremental(@NonNull String text, int parserId, @NonNull String prevText, @NonNull MarkdownRanges prevMarkdownRanges, int editStart, int removedLength, int insertedLength) {
+    try {
+      Systrace.beginSection(0, "parseIncremental");
+
+      MarkdownRanges cachedMarkdownRanges = sParseCache.get(text, parserId);
+      if (cachedMarkdownRanges != null) {
+        return cachedMarkdownRanges;
+      }
+
+      if (!canParseIncrementally(text, prevText, editStart, removedLength, insertedLength)) {
+        return parseAndCache(text, parserId);
+      }
+
+      // Dirty region in `prevText` coordinates, grown until no previous range crosses or touches its bounds
+      int regionStart = getBlockStart(prevText, editStart);
+      int regionEnd = getBlockEnd(prevText, editStart + removedLength);
+      while (true) {
+        int firstIndex = prevMarkdownRanges.getFirstIndexEndingFrom(regionStart);
+        if (firstIndex < prevMarkdownRanges.size() && prevMarkdownRanges.getStart(firstIndex) < regionStart) {
+          regionStart = getBlockStart(prevText, prevMarkdownRanges.getStart(firstIndex));
+          continue;
+        }
+        int lastIndex = prevMarkdownRanges.getFirstIndexStartingFrom(regionEnd + 1) - 1;
+        if (lastIndex >= 0 && prevMarkdownRanges.getMaxEnd(lastIndex) > regionEnd) {
+          regionEnd = getBlockEnd(prevText, prevMarkdownRanges.getMaxEnd(lastIndex) - 1);
+          continue;
+        }
+        break;
+      }
+
+      // Lines below a fence that is never closed are code, which a parse of the region alone can't tell
+      int unclosedFenceStart = prevMarkdownRanges == mFenceMarkdownRanges ? mUnclosedFenceStart : findUnclosedFence(prevText);
+      if (unclosedFenceStart != -1 && unclosedFenceStart < regionEnd) {
+        return parseAndCache(text, parserId);
+      }
+
+      int delta = insertedLength - removedLength;
+      String regionText = text.substring(regionStart, regionEnd + delta);
+      try {
+        Systrace.beginSection(0, "parserEngine");
+        runParserEngine(regionText, parserId);
+      } catch (Exception e) {
+        // Let the full parse report the error
+        return parseAndCache(text, parserId);
+      } finally {
+        Systrace.endSection(0);
+      }
+
+      MarkdownRanges markdownRanges = new MarkdownRanges(prevMarkdownRanges.size() + mEngineMarkdownRanges.size());
+      try {
+        Systrace.beginSection(0, "spliceRanges");
+        markdownRanges.addAll(prevMarkdownRanges, 0, prevMarkdownRanges.getFirstIndexStartingFrom(regionStart), 0);
+        addValidRanges(mEngineMarkdownRanges, regionStart, regionText.length(), markdownRanges);
+        markdownRanges.addAll(prevMarkdownRanges, prevMarkdownRanges.getFirstIndexStartingFrom(regionEnd), prevMarkdownRanges.size(), delta);
+        markdownRanges.trimToSize();
       } finally {
         Systrace.endSection(0);
       }
 
-      mPrevText = text;
-      mPrevParserId = parserId;
-      mPrevMarkdownRanges = markdownRanges;
-      return mPrevMarkdownRanges;
+      // Edits that are parsed incrementally don't add, remove or change fence lines
+      mFenceMarkdownRanges = markdownRanges;
+      mUnclosedFenceStart = unclosedFenceStart == -1 ? -1 : unclosedFenceStart + delta;
+      mIncrementalParseCount++;
+      sParseCache.put(text, parserId, markdownRanges);
+      return markdownRanges;
+    } finally {
+      Systrace.endSection(0);
+    }
+  }
+
+  private MarkdownRanges parseAndCache(@NonNull String text, int parserId) {
+    try {
+      Systrace.beginSection(0, "parserEngine");
+      runParserEngine(text, parserId);
+    } catch (IllegalArgumentException e) {
+      RNLog.w(mReactContext, "[react-native-live-markdown] Incorrect schema of parser output: " + e.getMessage());
+      sParseCache.put(text, parserId, EMPTY_MARKDOWN_RANGES);
+      return EMPTY_MARKDOWN_RANGES;
+    } catch (Exception e) {
+      // Skip formatting, runGuarded will show worklet errors in LogBox
+      sParseCache.put(text, parserId, EMPTY_MARKDOWN_RANGES);
+      return EMPTY_MARKDOWN_RANGES;
+    } finally {
+      Systrace.endSection(0);
+    }
+
+    MarkdownRanges markdownRanges = new MarkdownRanges(mEngineMarkdownRanges.size());
+    try {
+      Systrace.beginSection(0, "markdownRanges");
+      addValidRanges(mEngineMarkdownRanges, 0, text.length(), markdownRanges);
     } finally {
       Systrace.endSection(0);
     }
+
+    sParseCache.put(text, parserId, markdownRanges);
+    return markdownRanges;
+  }
+
+  /**
+   * Parses `text` into `mEngineMarkdownRanges`, sorted by start.
+   */
+  private void runParserEngine(@NonNull String text, int parserId) {
+    mEngineMarkdownRanges.clear();
+    getParserEngine(parserId).parse(text, parserId, mEngineMarkdownRanges);
+    mEngineMarkdownRanges.sortByStart();
+  }
+
+  /**
+   * Adds ranges of known types that fit into text of `textLength`, shifted by `offset`. Applied to
+   * the output of every engine, so the formatter never sees empty or out-of-bounds ranges.
+   */
+  private static void addValidRanges(@NonNull MarkdownRanges engineMarkdownRanges, int offset, int textLength, @NonNull MarkdownRanges markdownRanges) {
+    int typeCount = MarkdownRangeType.getCount();
+    for (int i = 0; i < engineMarkdownRanges.size(); i++) {
+      int typeId = engineMarkdownRanges.getTypeId(i);
+      int start = engineMarkdownRanges.getStart(i);
+      int end = engineMarkdownRanges.getEnd(i);
+      if (typeId < 0 || typeId >= typeCount || end <= start || start < 0 || end > textLength) {
+        continue;
+      }
+      markdownRanges.add(engineMarkdownRanges, i, offset);
+    }
+  }
+
+  private static boolean canParseIncrementally(@NonNull String text, @NonNull String prevText, int editStart, int removedLength, int insertedLength) {
+    if (!sIncrementalParsingEnabled || text.length() < INCREMENTAL_PARSE_MIN_LENGTH) {
+      return false;
+    }
+
+    // The edit comes from the text watcher and is trusted to turn `prevText` into `text`, only
+    // lengths are checked, as comparing the texts would cost as much as parsing them
+    int suffixLength = prevText.length() - editStart - removedLength;
+    if (editStart < 0 || suffixLength < 0 || text.length() != editStart + insertedLength + suffixLength) {
+      return false;
+    }
+
+    // Inline delimiters are matched across the whole document, not only within their block
+    // and whitespace next to them changes which ones can open or close
+    if (containsAny(prevText, editStart - 1, editStart + removedLength + 1, INLINE_DELIMITERS) || containsAny(text, editStart, editStart + insertedLength + 1, INLINE_DELIMITERS)) {
+      return false;
+    }
+
+    // Joining or splitting lines moves block boundaries, which changes what the inline rules skip
+    if (containsAny(prevText, editStart, editStart + removedLength, LINE_BREAKS) || containsAny(text, editStart, editStart + insertedLength, LINE_BREAKS)) {
+      return false;
+    }
+
+    // Edits within the block markers of a line can change its block type, e.g. `*x` into `* x`,
+    // or turn it into an indented code block that continues past blank lines. Fence lines only
+    // depend on their markers as well, so together with the checks above the fences stay the same
+    return isAfterBlockMarkers(text, editStart);
+  }
+
+  /**
+   * Returns the start of the fence line that opens a code block without a closing fence, or -1.
+   * Matches fences like the default parser: up to 3 spaces, then 3 or more backticks or tildes,
+   * closed by a fence of the same character.
+   */
+  private static int findUnclosedFence(@NonNull String text) {
+    int openingFenceStart = -1;
+    char openingFenceChar = 0;
+    int lineStart = 0;
+    while (lineStart <= text.length()) {
+      int lineEnd = text.indexOf('\n', lineStart);
+      if (lineEnd == -1) {
+        lineEnd = text.length();
+      }
+      int fenceStart = lineStart;
+      while (fenceStart < lineEnd && fenceStart - lineStart < 3 && text.charAt(fenceStart) == ' ') {
+        fenceStart++;
+      }
+      char fenceChar = fenceStart < lineEnd ? text.charAt(fenceStart) : 0;
+      int fenceEnd = fenceStart;
+      while (fenceEnd < lineEnd && text.charAt(fenceEnd) == fenceChar) {
+        fenceEnd++;
+      }
+      if ((fenceChar == '`' || fenceChar == '~') && fenceEnd - fenceStart >= 3 && !containsAny(text, fenceEnd, lineEnd, LINE_BREAKS)) {
+        if (openingFenceStart == -1) {
+          openingFenceStart = lineStart;
+          openingFenceChar = fenceChar;
+        } else if (fenceChar == openingFenceChar) {
+          openingFenceStart = -1;
+        }
+      }
+      lineStart = lineEnd + 1;
+    }
+    return openingFenceStart;
+  }
+
+  private static boolean containsAny(@NonNull String text, int start, int end, @NonNull String chars) {
+    for (int i = Math.max(start, 0); i < Math.min(end, text.length()); i++) {
+      if (chars.indexOf(text.charAt(i)) != -1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether the line containing `position` has a character other than block markers before it.
+   */
+  private static boolean isAfterBlockMarkers(@NonNull String text, int position) {
+    for (int i = position - 1; i >= 0 && LINE_BREAKS.indexOf(text.charAt(i)) == -1; i--) {
+      if (BLOCK_MARKER_CHARS.indexOf(text.charAt(i)) == -1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isBlankChar(char c) {
+    return c == ' ' || c == '\t';
+  }
+
+  private static boolean isBlankLine(@NonNull String text, int lineStart, int lineEnd) {
+    for (int i = lineStart; i < lineEnd; i++) {
+      if (!isBlankChar(text.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the start of the first line of the block (lines delimited by blank lines) containing `position`.
+   */
+  private static int getBlockStart(@NonNull String text, int position) {
+    int lineStart = text.lastIndexOf('\n', position - 1) + 1;
+    while (lineStart > 0) {
+      int prevLineStart = text.lastIndexOf('\n', lineStart - 2) + 1;
+      if (isBlankLine(text, prevLineStart, lineStart - 1)) {
+        break;
+      }
+      lineStart = prevLineStart;
+    }
+    return lineStart;
+  }
+
+  /**
+   * Returns the end, including the trailing newline, of the last line of the block containing `position`.
+   */
+  private static int getBlockEnd(@NonNull String text, int position) {
+    int lineEnd = text.indexOf('\n', position);
+    while (lineEnd != -1) {
+      int nextLineStart = lineEnd + 1;
+      int nextLineEnd = text.indexOf('\n', nextLineStart);
+      if (isBlankLine(text, nextLineStart, nextLineEnd == -1 ? text.length() : nextLineEnd)) {
+        return nextLineStart;
+      }
+      lineEnd = nextLineEnd;
+    }
+    return text.length();
   }
 }
@@ -0,0 +1,24 @@
+package com.expensify.livemarkdown;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Turns text into markdown ranges for MarkdownParser. Implementations may be called from any
+ * thread and should throw IllegalArgumentException when the parser returns malformed output.
+ */
+public interface MarkdownParserEngine {
+  /**
+   * Appends ranges of `text` to `markdownRanges`, which is reused between calls.
+   */
+  void parse(@NonNull String text, int parserId, @NonNull MarkdownRanges markdownRanges);
+
+  /**
+   * Appends ranges of each of `texts` to the instance at the same index of `markdownRanges`.
+   * Engines with a fixed cost per call should override it to pay that cost once per batch.
+   */
+  default void parseBatch(@NonNull String[] texts, int parserId, @NonNull MarkdownRanges[] markdownRanges) {
+    for (int i = 0; i < texts.length; i++) {
+      parse(texts[i], parserId, markdownRanges[i]);
+    }
+  }
+}
@@ -0,0 +1,16 @@
+package com.expensify.livemarkdown;
+
+import android.text.SpannableStringBuilder;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Sets spans for ranges of a single type, see MarkdownFormatter.registerRangeHandler. Spans must
+ * implement MarkdownSpan, otherwise they're not removed by the next format.
+ */
+public interface MarkdownRangeHandler {
+  /**
+   * Applies the range at `index` of `markdownRanges`.
+   */
+  void apply(@NonNull SpannableStringBuilder ssb, @NonNull MarkdownRanges markdownRanges, int index, @NonNull MarkdownStyle markdownStyle, int cursorPosition);
+}
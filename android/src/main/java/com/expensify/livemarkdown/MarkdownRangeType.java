@@ -0,0 +1,114 @@
+package com.expensify.livemarkdown;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Integer ids of range types. Built-in types have fixed ids, custom types get the next free id
+ * when they're registered. Ids are also what the native parser sends for each range.
+ */
+public final class MarkdownRangeType {
+  public static final int UNKNOWN = -1;
+
+  public static final int BOLD = 0;
+  public static final int ITALIC = 1;
+  public static final int STRIKETHROUGH = 2;
+  public static final int EMOJI = 3;
+  public static final int MENTION_HERE = 4;
+  public static final int MENTION_USER = 5;
+  public static final int MENTION_SHORT = 6;
+  public static final int MENTION_REPORT = 7;
+  public static final int LINK = 8;
+  public static final int CODE = 9;
+  public static final int PRE = 10;
+  public static final int BLOCKQUOTE = 11;
+  public static final int BLOCKQUOTE_MARKER = 12;
+  public static final int H1 = 13;
+  public static final int H2 = 14;
+  public static final int H3 = 15;
+  public static final int H4 = 16;
+  public static final int H5 = 17;
+  public static final int H6 = 18;
+  public static final int SYNTAX = 19;
+  public static final int INLINE_IMAGE = 20;
+  public static final int CODEBLOCK = 21;
+  public static final int TASK_UNCHECKED = 22;
+  public static final int TASK_CHECKED = 23;
+  public static final int TASK_CONTENT_CHECKED = 24;
+  public static final int LIST_BULLET = 25;
+  public static final int LIST_NUMBER = 26;
+  public static final int HR = 27;
+  public static final int TABLE = 28;
+  public static final int TABLE_ROW = 29;
+  public static final int TABLE_CELL = 30;
+  public static final int TABLE_DELIMITER = 31;
+  public static final int TABLE_PIPE = 32;
+
+  static final int BUILT_IN_COUNT = 33;
+
+  // Replaced as a whole on registration, so readers never need a lock
+  private static volatile String[] sNames = {
+    "bold", "italic", "strikethrough", "emoji", "mention-here", "mention-user", "mention-short",
+    "mention-report", "link", "code", "pre", "blockquote", "blockquote-marker", "h1", "h2", "h3",
+    "h4", "h5", "h6", "syntax", "inline-image", "codeblock", "task-unchecked", "task-checked",
+    "task-content-checked", "list-bullet", "list-number", "hr", "table", "table-row", "table-cell",
+    "table-delimiter", "table-pipe"
+  };
+  private static volatile Map<String, Integer> sIds = createIds(sNames);
+
+  private MarkdownRangeType() {}
+
+  /**
+   * Returns the id of `name`, or UNKNOWN if no such type was registered.
+   */
+  public static int getId(@NonNull String name) {
+    Integer id = sIds.get(name);
+    return id != null ? id : UNKNOWN;
+  }
+
+  @Nullable
+  public static String getName(int id) {
+    String[] names = sNames;
+    return id >= 0 && id < names.length ? names[id] : null;
+  }
+
+  public static int getCount() {
+    return sNames.length;
+  }
+
+  /**
+   * Returns names of all types indexed by id. Must not be modified.
+   */
+  static @NonNull String[] getNames() {
+    return sNames;
+  }
+
+  /**
+   * Registers a custom range type so that parsers can emit it, returns its id. Registering a
+   * type that already exists returns the existing id.
+   */
+  public static synchronized int register(@NonNull String name) {
+    int id = getId(name);
+    if (id != UNKNOWN) {
+      return id;
+    }
+    String[] names = new String[sNames.length + 1];
+    System.arraycopy(sNames, 0, names, 0, sNames.length);
+    id = sNames.length;
+    names[id] = name;
+    sIds = createIds(names);
+    sNames = names;
+    return id;
+  }
+
+  private static Map<String, Integer> createIds(@NonNull String[] names) {
+    Map<String, Integer> ids = new HashMap<>(names.length * 2);
+    for (int i = 0; i < names.length; i++) {
+      ids.put(names[i], i);
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,275 @@
+package com.expensify.livemarkdown;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Markdown ranges stored as parallel int arrays sorted by start, iterated by index. Instances
+ * returned by MarkdownParser are shared through the parse cache and must not be modified.
+ */
+public class MarkdownRanges {
+  public static final int TABLE_ALIGNMENT_NONE = 0;
+  public static final int TABLE_ALIGNMENT_LEFT = 1;
+  public static final int TABLE_ALIGNMENT_CENTER = 2;
+  public static final int TABLE_ALIGNMENT_RIGHT = 3;
+
+  // Indexed by table alignment id
+  private static final String[] TABLE_ALIGNMENTS = {null, "left", "center", "right"};
+
+  // Bytes used by a single range in all arrays
+  static final int RANGE_SIZE_BYTES = 8 * 4;
+
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private int[] mTypeIds;
+  private int[] mStarts;
+  private int[] mEnds;
+  private int[] mDepths;
+  private int[] mTableColumns;
+  private int[] mTableAlignments;
+  private int[] mTableColumnCounts;
+  // Largest end of the ranges up to each index, so that ranges sorted by start can be searched by end
+  private int[] mMaxEnds;
+  private int mSize;
+
+  public MarkdownRanges() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public MarkdownRanges(int capacity) {
+    capacity = Math.max(capacity, 1);
+    mTypeIds = new int[capacity];
+    mStarts = new int[capacity];
+    mEnds = new int[capacity];
+    mDepths = new int[capacity];
+    mTableColumns = new int[capacity];
+    mTableAlignments = new int[capacity];
+    mTableColumnCounts = new int[capacity];
+    mMaxEnds = new int[capacity];
+  }
+
+  public int size() {
+    return mSize;
+  }
+
+  public boolean isEmpty() {
+    return mSize == 0;
+  }
+
+  public int getTypeId(int index) {
+    return mTypeIds[index];
+  }
+
+  /**
+   * Returns the type name, or null for types that were never registered in MarkdownRangeType.
+   */
+  @Nullable
+  public String getType(int index) {
+    return MarkdownRangeType.getName(mTypeIds[index]);
+  }
+
+  public int getStart(int index) {
+    return mStarts[index];
+  }
+
+  public int getEnd(int index) {
+    return mEnds[index];
+  }
+
+  public int getLength(int index) {
+    return mEnds[index] - mStarts[index];
+  }
+
+  public int getDepth(int index) {
+    return mDepths[index];
+  }
+
+  public int getTableColumn(int index) {
+    return mTableColumns[index];
+  }
+
+  public int getTableAlignmentId(int index) {
+    return mTableAlignments[index];
+  }
+
+  @Nullable
+  public String getTableAlignment(int index) {
+    return TABLE_ALIGNMENTS[mTableAlignments[index]];
+  }
+
+  public int getTableColumnCount(int index) {
+    return mTableColumnCounts[index];
+  }
+
+  public void add(int typeId, int start, int end, int depth) {
+    add(typeId, start, end, depth, -1, TABLE_ALIGNMENT_NONE, 0);
+  }
+
+  public void add(int typeId, int start, int end, int depth, int tableColumn, int tableAlignmentId, int tableColumnCount) {
+    if (mSize == mTypeIds.length) {
+      grow(mSize + 1);
+    }
+    mTypeIds[mSize] = typeId;
+    mStarts[mSize] = start;
+    mEnds[mSize] = end;
+    mDepths[mSize] = depth;
+    mTableColumns[mSize] = tableColumn;
+    mTableAlignments[mSize] = tableAlignmentId;
+    mTableColumnCounts[mSize] = tableColumnCount;
+    mMaxEnds[mSize] = mSize > 0 ? Math.max(mMaxEnds[mSize - 1], end) : end;
+    mSize++;
+  }
+
+  /**
+   * Appends the range at `index` of `ranges` shifted by `offset`.
+   */
+  public void add(@NonNull MarkdownRanges ranges, int index, int offset) {
+    add(ranges.mTypeIds[index], ranges.mStarts[index] + offset, ranges.mEnds[index] + offset, ranges.mDepths[index], ranges.mTableColumns[index], ranges.mTableAlignments[index], ranges.mTableColumnCounts[index]);
+  }
+
+  /**
+   * Appends the ranges from `fromIndex` to `toIndex` (exclusive) of `ranges` shifted by `offset`.
+   */
+  public void addAll(@NonNull MarkdownRanges ranges, int fromIndex, int toIndex, int offset) {
+    int count = toIndex - fromIndex;
+    if (count <= 0) {
+      return;
+    }
+    ensureCapacity(mSize + count);
+    System.arraycopy(ranges.mTypeIds, fromIndex, mTypeIds, mSize, count);
+    System.arraycopy(ranges.mDepths, fromIndex, mDepths, mSize, count);
+    System.arraycopy(ranges.mTableColumns, fromIndex, mTableColumns, mSize, count);
+    System.arraycopy(ranges.mTableAlignments, fromIndex, mTableAlignments, mSize, count);
+    System.arraycopy(ranges.mTableColumnCounts, fromIndex, mTableColumnCounts, mSize, count);
+    int maxEnd = mSize > 0 ? mMaxEnds[mSize - 1] : Integer.MIN_VALUE;
+    for (int i = 0; i < count; i++) {
+      int end = ranges.mEnds[fromIndex + i] + offset;
+      mStarts[mSize + i] = ranges.mStarts[fromIndex + i] + offset;
+      mEnds[mSize + i] = end;
+      maxEnd = Math.max(maxEnd, end);
+      mMaxEnds[mSize + i] = maxEnd;
+    }
+    mSize += count;
+  }
+
+  /**
+   * Returns the largest end of the ranges up to `index`.
+   */
+  int getMaxEnd(int index) {
+    return mMaxEnds[index];
+  }
+
+  /**
+   * Returns the index of the first range that starts at or after `position`, or size() if there's
+   * none. Ranges must be sorted by start.
+   */
+  int getFirstIndexStartingFrom(int position) {
+    int low = 0;
+    int high = mSize;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (mStarts[mid] < position) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns the index of the first range that ends at or after `position`, or size() if there's none.
+   */
+  int getFirstIndexEndingFrom(int position) {
+    int low = 0;
+    int high = mSize;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (mMaxEnds[mid] < position) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Removes all ranges and keeps the arrays for the next use.
+   */
+  public void clear() {
+    mSize = 0;
+  }
+
+  public void ensureCapacity(int capacity) {
+    if (capacity > mTypeIds.length) {
+      grow(capacity);
+    }
+  }
+
+  /**
+   * Returns the arrays to `size()`, for ranges that are kept for a long time.
+   */
+  public void trimToSize() {
+    if (mSize < mTypeIds.length) {
+      resize(Math.max(mSize, 1));
+    }
+  }
+
+  public boolean isSortedByStart() {
+    for (int i = 1; i < mSize; i++) {
+      if (mStarts[i] < mStarts[i - 1]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Sorts ranges by start, keeping the order of ranges with the same start.
+   */
+  public void sortByStart() {
+    if (isSortedByStart()) {
+      return;
+    }
+    Integer[] order = new Integer[mSize];
+    for (int i = 0; i < mSize; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Integer.compare(mStarts[a], mStarts[b]));
+
+    MarkdownRanges sorted = new MarkdownRanges(mSize);
+    for (int i = 0; i < mSize; i++) {
+      sorted.add(this, order[i], 0);
+    }
+    mTypeIds = sorted.mTypeIds;
+    mStarts = sorted.mStarts;
+    mEnds = sorted.mEnds;
+    mDepths = sorted.mDepths;
+    mTableColumns = sorted.mTableColumns;
+    mTableAlignments = sorted.mTableAlignments;
+    mTableColumnCounts = sorted.mTableColumnCounts;
+    mMaxEnds = sorted.mMaxEnds;
+  }
+
+  public int getSizeBytes() {
+    return mTypeIds.length * RANGE_SIZE_BYTES;
+  }
+
+  private void grow(int minCapacity) {
+    resize(Math.max(minCapacity, mTypeIds.length + (mTypeIds.length >> 1)));
+  }
+
+  private void resize(int capacity) {
+    mTypeIds = Arrays.copyOf(mTypeIds, capacity);
+    mStarts = Arrays.copyOf(mStarts, capacity);
+    mEnds = Arrays.copyOf(mEnds, capacity);
+    mDepths = Arrays.copyOf(mDepths, capacity);
+    mTableColumns = Arrays.copyOf(mTableColumns, capacity);
+    mTableAlignments = Arrays.copyOf(mTableAlignments, capacity);
+    mTableColumnCounts = Arrays.copyOf(mTableColumnCounts, capacity);
+    mMaxEnds = Arrays.copyOf(mMaxEnds, capacity);
+  }
+}
@@ -0,0 +1,96 @@
+package com.expensify.livemarkdown;
+
+import android.content.res.AssetManager;
+
+import androidx.annotation.NonNull;
+
+import com.expensify.livemarkdown.spans.*;
+
+/**
+ * MarkdownStyle compiled into prototype spans with pixel values already converted. Handlers plan
+ * these shared instances, MarkdownFormatter copies only the ones it actually sets on the text.
+ */
+public class MarkdownRenderSpec {
+  // Deeper blockquotes are rare enough to create their spans on demand
+  private static final int MAX_PRECOMPUTED_BLOCKQUOTE_DEPTH = 8;
+
+  private final @NonNull MarkdownStyle mMarkdownStyle;
+
+  final @NonNull MarkdownBoldSpan boldSpan = new MarkdownBoldSpan();
+  final @NonNull MarkdownItalicSpan italicSpan = new MarkdownItalicSpan();
+  final @NonNull MarkdownStrikethroughSpan strikethroughSpan = new MarkdownStrikethroughSpan();
+  final @NonNull MarkdownUnderlineSpan underlineSpan = new MarkdownUnderlineSpan();
+  final @NonNull MarkdownHiddenSpan hiddenSpan = new MarkdownHiddenSpan();
+  final @NonNull MarkdownForegroundColorSpan syntaxColorSpan;
+  final @NonNull MarkdownForegroundColorSpan linkColorSpan;
+  final @NonNull MarkdownFontFamilySpan emojiFontFamilySpan;
+  final @NonNull MarkdownFontSizeSpan emojiFontSizeSpan;
+  final @NonNull MarkdownForegroundColorSpan mentionHereColorSpan;
+  final @NonNull MarkdownForegroundColorSpan mentionUserColorSpan;
+  final @NonNull MarkdownForegroundColorSpan mentionReportColorSpan;
+  final @NonNull MarkdownFontFamilySpan codeFontFamilySpan;
+  final @NonNull MarkdownFontSizeSpan codeFontSizeSpan;
+  final @NonNull MarkdownForegroundColorSpan codeColorSpan;
+  final @NonNull MarkdownBackgroundColorSpan codeBackgroundColorSpan;
+  final @NonNull MarkdownFontFamilySpan preFontFamilySpan;
+  final @NonNull MarkdownFontSizeSpan preFontSizeSpan;
+  final @NonNull MarkdownForegroundColorSpan preColorSpan;
+  final @NonNull MarkdownCodeBlockSpan preBackgroundSpan;
+  final @NonNull MarkdownFontSizeSpan[] headingFontSizeSpans;
+  final @NonNull MarkdownForegroundColorSpan blockquoteBorderColorSpan;
+
+  // Indexed by depth - 1
+  private final @NonNull MarkdownBlockquoteSpan[] mBlockquoteSpans = new MarkdownBlockquoteSpan[MAX_PRECOMPUTED_BLOCKQUOTE_DEPTH];
+
+  public MarkdownRenderSpec(@NonNull MarkdownStyle markdownStyle, @NonNull AssetManager assetManager) {
+    mMarkdownStyle = markdownStyle;
+    syntaxColorSpan = new MarkdownForegroundColorSpan(markdownStyle.getSyntaxColor());
+    linkColorSpan = new MarkdownForegroundColorSpan(markdownStyle.getLinkColor());
+    emojiFontFamilySpan = new MarkdownFontFamilySpan(markdownStyle.getEmojiFontFamily(), assetManager);
+    emojiFontSizeSpan = new MarkdownFontSizeSpan(markdownStyle.getEmojiFontSize());
+    mentionHereColorSpan = new MarkdownForegroundColorSpan(markdownStyle.getMentionHereColor());
+    mentionUserColorSpan = new MarkdownForegroundColorSpan(markdownStyle.getMentionUserColor());
+    mentionReportColorSpan = new MarkdownForegroundColorSpan(markdownStyle.getMentionReportColor());
+    codeFontFamilySpan = new MarkdownFontFamilySpan(markdownStyle.getCodeFontFamily(), assetManager);
+    codeFontSizeSpan = new MarkdownFontSizeSpan(markdownStyle.getCodeFontSize());
+    codeColorSpan = new MarkdownForegroundColorSpan(markdownStyle.getCodeColor());
+    codeBackgroundColorSpan = new MarkdownBackgroundColorSpan(markdownStyle.getCodeBackgroundColor());
+    preFontFamilySpan = new MarkdownFontFamilySpan(markdownStyle.getPreFontFamily(), assetManager);
+    preFontSizeSpan = new MarkdownFontSizeSpan(markdownStyle.getPreFontSize());
+    preColorSpan = new MarkdownForegroundColorSpan(markdownStyle.getPreColor());
+    preBackgroundSpan = new MarkdownCodeBlockSpan(markdownStyle.getPreBackgroundColor());
+    headingFontSizeSpans = new MarkdownFontSizeSpan[] {
+      new MarkdownFontSizeSpan(markdownStyle.getH1FontSize()),
+      new MarkdownFontSizeSpan(markdownStyle.getH2FontSize()),
+      new MarkdownFontSizeSpan(markdownStyle.getH3FontSize()),
+      new MarkdownFontSizeSpan(markdownStyle.getH4FontSize()),
+      new MarkdownFontSizeSpan(markdownStyle.getH5FontSize()),
+      new MarkdownFontSizeSpan(markdownStyle.getH6FontSize()),
+    };
+    blockquoteBorderColorSpan = new MarkdownForegroundColorSpan(markdownStyle.getBlockquoteBorderColor());
+    for (int i = 0; i < MAX_PRECOMPUTED_BLOCKQUOTE_DEPTH; i++) {
+      mBlockquoteSpans[i] = createBlockquoteSpan(i + 1);
+    }
+  }
+
+  public @NonNull MarkdownStyle getMarkdownStyle() {
+    return mMarkdownStyle;
+  }
+
+  @NonNull
+  MarkdownBlockquoteSpan getBlockquoteSpan(int depth) {
+    if (depth >= 1 && depth <= MAX_PRECOMPUTED_BLOCKQUOTE_DEPTH) {
+      return mBlockquoteSpans[depth - 1];
+    }
+    return createBlockquoteSpan(depth);
+  }
+
+  private @NonNull MarkdownBlockquoteSpan createBlockquoteSpan(int depth) {
+    return new MarkdownBlockquoteSpan(
+      mMarkdownStyle.getBlockquoteBorderColor(),
+      mMarkdownStyle.getBlockquoteBorderWidth(),
+      mMarkdownStyle.getBlockquoteMarginLeft(),
+      mMarkdownStyle.getBlockquotePaddingLeft(),
+      depth);
+  }
+}
@@ -2,16 +2,25 @@ package com.expensify.livemarkdown;
 
 import android.content.Context;
 import android.text.Editable;
+import android.text.NoCopySpan;
+import android.text.Selection;
+import android.text.SpanWatcher;
+import android.text.Spannable;
 import android.text.SpannableStringBuilder;
+import android.text.Spanned;
 import android.text.TextWatcher;
-import android.os.Handler;
-import android.os.Looper;
 
+import android.view.Choreographer;
 import android.view.View;
+import android.view.ViewTreeObserver;
 
 import com.facebook.react.bridge.ReactContext;
 import com.facebook.react.views.textinput.ReactEditText;
 import com.facebook.react.views.view.ReactViewGroup;
+import com.facebook.systrace.Systrace;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class MarkdownTextInputDecoratorView extends ReactViewGroup {
 
@@ -29,18 +38,25 @@ public class MarkdownTextInputDecoratorView extends ReactViewGroup {
 
   private TextWatcher mTextWatcher;
 
-  private int mLastCursorLine = -1;
+  private ViewTreeObserver.OnScrollChangedListener mScrollChangedListener;
+
   private int mLastCursorPos = -1;
-  private Handler mHandler;
-  private Runnable mCursorCheckRunnable;
-  private static final int CURSOR_CHECK_INTERVAL_MS = 100;
 
-  // Track last formatted text to detect changes from JS
-  private String mLastFormattedText = "";
-  private Runnable mTextCheckRunnable;
-  private static final int TEXT_CHECK_INTERVAL_MS = 50;
-  private static final int TEXT_CHECK_MAX_ATTEMPTS = 20; // Check for 1 second max
-  private int mTextCheckAttempts = 0;
+  // Notified of every edit and selection move of the watched text, see watchText
+  private final EditableWatcher mEditableWatcher = new EditableWatcher();
+  private Editable mWatchedText;
+
+  // Formats and cursor updates requested since the last frame, done once on the next one with the
+  // latest text, cursor, style and parser, see scheduleFormat
+  private final Choreographer.FrameCallback mFormatFrameCallback = frameTimeNanos -> runScheduledFormat();
+  private boolean mIsFormatScheduled;
+  private boolean mIsFormatRequested;
+  private boolean mIsCursorUpdateRequested;
+  private long mAvoidedFormatCount;
+
+  // Decorators with a format requested for the next frame, whose texts are parsed together by the
+  // first of them to run, see prefetchRequestedFormats
+  private static final List<MarkdownTextInputDecoratorView> sFormatRequestedViews = new ArrayList<>();
 
   @Override
   protected void onAttachedToWindow() {
@@ -48,13 +64,21 @@ public class MarkdownTextInputDecoratorView extends ReactViewGroup {
 
     View child = getChildAt(0);
     if (child instanceof ReactEditText) {
-      mMarkdownUtils = new MarkdownUtils((ReactContext) getContext());
-      mMarkdownUtils.setMarkdownStyle(mMarkdownStyle);
-      mMarkdownUtils.setParserId(mParserId);
+      // Parsing is warmed up and the parser and formatter of this input are set up on attach, not at startup
+      MarkdownUtils.warmUp();
+      try {
+        Systrace.beginSection(0, "createMarkdownUtils");
+        mMarkdownUtils = new MarkdownUtils((ReactContext) getContext());
+        mMarkdownUtils.setMarkdownStyle(mMarkdownStyle);
+        mMarkdownUtils.setParserId(mParserId);
+      } finally {
+        Systrace.endSection(0);
+      }
       mReactEditText = (ReactEditText) child;
-      mHandler = new Handler(Looper.getMainLooper());
+      mMarkdownUtils.setTextView(mReactEditText);
 
-      // Create a text watcher that also updates cursor position
+      // Edits are reported by the watcher on the text itself, the input only tells when `setText`
+      // replaced the text with one that isn't watched yet
       mTextWatcher = new TextWatcher() {
         @Override
         public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
@@ -64,146 +88,247 @@ public class MarkdownTextInputDecoratorView extends ReactViewGroup {
 
         @Override
         public void afterTextChanged(Editable editable) {
-          if (editable instanceof SpannableStringBuilder ssb) {
-            updateCursorAndFormat(ssb);
+          if (editable != mWatchedText) {
+            watchText();
+            scheduleFormat();
           }
         }
       };
       mReactEditText.addTextChangedListener(mTextWatcher);
+      watchText();
 
-      // Focus listener to start/stop cursor monitoring
-      mReactEditText.setOnFocusChangeListener((v, hasFocus) -> {
-        if (hasFocus) {
-          startCursorMonitoring();
-        } else {
-          stopCursorMonitoring();
-        }
-      });
-
-      // Periodic cursor position check while focused
-      mCursorCheckRunnable = new Runnable() {
-        @Override
-        public void run() {
-          checkCursorLineChanged();
-          if (mReactEditText != null && mReactEditText.hasFocus()) {
-            mHandler.postDelayed(this, CURSOR_CHECK_INTERVAL_MS);
-          }
+      // Styles regions of long texts as they're scrolled into view, by the input or by a parent
+      mScrollChangedListener = () -> {
+        if (mReactEditText != null && mMarkdownUtils != null && mReactEditText.getText() instanceof SpannableStringBuilder ssb) {
+          mMarkdownUtils.onViewportChanged(ssb);
         }
       };
+      getViewTreeObserver().addOnScrollChangedListener(mScrollChangedListener);
 
-      // Text check runnable to detect changes from JS (bypasses TextWatcher)
-      // React Native's ReactEditText skips TextWatcher callbacks when setting text from JS
-      mTextCheckRunnable = new Runnable() {
-        @Override
-        public void run() {
-          if (mReactEditText == null || mMarkdownUtils == null) return;
-
-          String currentText = mReactEditText.getText().toString();
-          if (!currentText.equals(mLastFormattedText) && !currentText.isEmpty()) {
-            // Text changed from JS - apply formatting
-            Editable editable = mReactEditText.getText();
-            if (editable instanceof SpannableStringBuilder ssb) {
-              updateCursorAndFormat(ssb);
-              mLastFormattedText = currentText;
-            }
-            mTextCheckAttempts = 0; // Reset on success
-          } else if (mTextCheckAttempts < TEXT_CHECK_MAX_ATTEMPTS) {
-            // Keep checking for a bit in case text is set asynchronously
-            mTextCheckAttempts++;
-            mHandler.postDelayed(this, TEXT_CHECK_INTERVAL_MS);
-          }
+      try {
+        Systrace.beginSection(0, "initialFormat");
+        // Formatted right away, so that the first frame doesn't show the text unstyled
+        if (mReactEditText.getText() instanceof SpannableStringBuilder ssb) {
+          updateCursorAndFormat(ssb);
         }
-      };
-
-      applyNewStyles();
-
-      // Start monitoring if already focused
-      if (mReactEditText.hasFocus()) {
-        startCursorMonitoring();
+      } finally {
+        Systrace.endSection(0);
       }
+    }
+  }
 
-      // Start text check to catch text set from JS (bypasses TextWatcher)
-      mTextCheckAttempts = 0;
-      mHandler.post(mTextCheckRunnable);
+  /**
+   * Watches the text shown by the input, which is replaced when the input's `setText` is called.
+   */
+  private void watchText() {
+    Editable editable = mReactEditText != null ? mReactEditText.getText() : null;
+    if (editable == mWatchedText) {
+      return;
+    }
+    if (mWatchedText != null && mMarkdownUtils != null) {
+      mMarkdownUtils.onTextReplaced();
+    }
+    unwatchText();
+    if (editable != null) {
+      // Like TextView's own watcher, it covers the whole text and grows with it
+      editable.setSpan(mEditableWatcher, 0, editable.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+      mWatchedText = editable;
     }
   }
 
-  private void startCursorMonitoring() {
-    if (mHandler != null && mCursorCheckRunnable != null) {
-      mHandler.removeCallbacks(mCursorCheckRunnable);
-      mHandler.post(mCursorCheckRunnable);
+  private void unwatchText() {
+    if (mWatchedText != null) {
+      mWatchedText.removeSpan(mEditableWatcher);
+      mWatchedText = null;
     }
   }
 
-  private void stopCursorMonitoring() {
-    if (mHandler != null && mCursorCheckRunnable != null) {
-      mHandler.removeCallbacks(mCursorCheckRunnable);
+  /**
+   * Requests a format when the text changes and a cursor update when the selection moves. As a
+   * span of the text it's notified of text set from JS as well, which ReactEditText hides from its
+   * own TextWatchers. Being a NoCopySpan, it isn't copied along with the text.
+   */
+  private class EditableWatcher implements TextWatcher, SpanWatcher, NoCopySpan {
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+      if (s == mWatchedText && mMarkdownUtils != null) {
+        mMarkdownUtils.onTextChanged(start, before, count);
+      }
+    }
+
+    @Override
+    public void afterTextChanged(Editable editable) {
+      if (editable == mWatchedText) {
+        scheduleFormat();
+      }
+    }
+
+    @Override
+    public void onSpanAdded(Spannable text, Object what, int start, int end) {
+      onSpanChanged(text, what, -1, -1, start, end);
+    }
+
+    @Override
+    public void onSpanRemoved(Spannable text, Object what, int start, int end) {}
+
+    @Override
+    public void onSpanChanged(Spannable text, Object what, int oldStart, int oldEnd, int newStart, int newEnd) {
+      if (what == Selection.SELECTION_START && text == mWatchedText) {
+        checkCursorLineChanged();
+      }
     }
   }
 
   /**
-   * Check if cursor moved, and re-format if so.
-   * We re-format on ANY cursor movement (not just line changes) because
+   * Check if cursor moved, and update syntax visibility if so.
+   * We update on ANY cursor movement (not just line changes) because
    * inline syntax (bold/italic) hides based on cursor position within the line.
    */
   private void checkCursorLineChanged() {
     if (mReactEditText == null || mMarkdownUtils == null) return;
 
-    int cursorPos = mReactEditText.getSelectionStart();
-
     // Only reformat if cursor actually moved
+    if (mReactEditText.getSelectionStart() != mLastCursorPos) {
+      scheduleCursorUpdate();
+    }
+  }
+
+  /**
+   * Formats the input on the next frame. Requests made until then are served by the same format,
+   * which uses the text, cursor, style and parser as of that frame.
+   */
+  private void scheduleFormat() {
+    if (mIsFormatRequested) {
+      countAvoidedFormat();
+    } else {
+      sFormatRequestedViews.add(this);
+    }
+    mIsFormatRequested = true;
+    scheduleFrame();
+  }
+
+  /**
+   * Shows and hides syntax for the cursor position on the next frame, unless a format is done then.
+   */
+  private void scheduleCursorUpdate() {
+    if (mIsCursorUpdateRequested) {
+      countAvoidedFormat();
+    }
+    mIsCursorUpdateRequested = true;
+    scheduleFrame();
+  }
+
+  private void countAvoidedFormat() {
+    mAvoidedFormatCount++;
+    Systrace.traceCounter(0, "avoidedFormats", (int) mAvoidedFormatCount);
+  }
+
+  private void scheduleFrame() {
+    if (mIsFormatScheduled) {
+      return;
+    }
+    mIsFormatScheduled = true;
+    Choreographer.getInstance().postFrameCallback(mFormatFrameCallback);
+  }
+
+  private void cancelScheduledFormat() {
+    if (mIsFormatScheduled) {
+      Choreographer.getInstance().removeFrameCallback(mFormatFrameCallback);
+    }
+    if (mIsFormatRequested) {
+      sFormatRequestedViews.remove(this);
+    }
+    mIsFormatScheduled = false;
+    mIsFormatRequested = false;
+    mIsCursorUpdateRequested = false;
+  }
+
+  /**
+   * Parses the texts of all decorators with a format requested for this frame at once, e.g. when
+   * a list of inputs is mounted, so that the parser is called once instead of for each of them.
+   */
+  private static void prefetchRequestedFormats() {
+    if (sFormatRequestedViews.size() < 2) {
+      sFormatRequestedViews.clear();
+      return;
+    }
+    List<MarkdownUtils> markdownUtilsList = new ArrayList<>();
+    List<CharSequence> texts = new ArrayList<>();
+    for (MarkdownTextInputDecoratorView view : sFormatRequestedViews) {
+      if (view.mReactEditText != null && view.mMarkdownUtils != null && view.mReactEditText.getText() != null) {
+        markdownUtilsList.add(view.mMarkdownUtils);
+        texts.add(view.mReactEditText.getText());
+      }
+    }
+    sFormatRequestedViews.clear();
+    MarkdownUtils.prefetchParses(markdownUtilsList, texts);
+  }
+
+  private void runScheduledFormat() {
+    if (mIsFormatRequested) {
+      prefetchRequestedFormats();
+    }
+    boolean isFormatRequested = mIsFormatRequested;
+    mIsFormatScheduled = false;
+    mIsFormatRequested = false;
+    mIsCursorUpdateRequested = false;
+    if (mReactEditText == null || mMarkdownUtils == null || !(mReactEditText.getText() instanceof SpannableStringBuilder ssb)) {
+      return;
+    }
+    watchText();
+    if (isFormatRequested) {
+      updateCursorAndFormat(ssb);
+      return;
+    }
+
+    int cursorPos = mReactEditText.getSelectionStart();
     if (cursorPos == mLastCursorPos) return;
     mLastCursorPos = cursorPos;
 
-    // Re-format on any cursor movement for inline syntax hiding
-    Editable editable = mReactEditText.getText();
-    if (editable instanceof SpannableStringBuilder ssb) {
-      mLastCursorLine = getLineNumber(ssb.toString(), cursorPos);
-      mMarkdownUtils.setCursorPosition(cursorPos);
-      mMarkdownUtils.applyMarkdownFormatting(ssb);
-    }
+    // Toggle syntax on any cursor movement for inline syntax hiding, the text itself is unchanged
+    mMarkdownUtils.updateCursorPosition(ssb, cursorPos);
+  }
+
+  /**
+   * Returns the number of formats that were served by another format requested for the same frame,
+   * and likewise for cursor updates. A cursor update done by a format isn't counted.
+   */
+  public long getAvoidedFormatCount() {
+    return mAvoidedFormatCount;
   }
 
   private void updateCursorAndFormat(SpannableStringBuilder ssb) {
+    cancelScheduledFormat();
     if (mReactEditText != null && mMarkdownUtils != null) {
       int cursorPos = mReactEditText.getSelectionStart();
       mLastCursorPos = cursorPos;
-      mLastCursorLine = getLineNumber(ssb.toString(), cursorPos);
       mMarkdownUtils.setCursorPosition(cursorPos);
-      mMarkdownUtils.applyMarkdownFormatting(ssb);
-      // Track formatted text for JS change detection
-      mLastFormattedText = ssb.toString();
-    }
-  }
-
-  private int getLineNumber(String text, int position) {
-    if (position < 0 || position > text.length()) return 0;
-    int line = 0;
-    for (int i = 0; i < position; i++) {
-      if (text.charAt(i) == '\n') line++;
+      mMarkdownUtils.applyMarkdownFormattingAsync(ssb);
     }
-    return line;
   }
 
   @Override
   protected void onDetachedFromWindow() {
     super.onDetachedFromWindow();
-    stopCursorMonitoring();
-    // Stop text check runnable
-    if (mHandler != null && mTextCheckRunnable != null) {
-      mHandler.removeCallbacks(mTextCheckRunnable);
+    unwatchText();
+    cancelScheduledFormat();
+    if (mScrollChangedListener != null) {
+      getViewTreeObserver().removeOnScrollChangedListener(mScrollChangedListener);
+      mScrollChangedListener = null;
     }
     if (mReactEditText != null) {
       mReactEditText.removeTextChangedListener(mTextWatcher);
-      mReactEditText.setOnFocusChangeListener(null);
       mReactEditText = null;
       mTextWatcher = null;
+    }
+    if (mMarkdownUtils != null) {
+      mMarkdownUtils.setTextView(null);
+      mMarkdownUtils.cancelPendingParse();
       mMarkdownUtils = null;
     }
-    mHandler = null;
-    mCursorCheckRunnable = null;
-    mTextCheckRunnable = null;
-    mLastFormattedText = "";
   }
 
   protected void setMarkdownStyle(MarkdownStyle markdownStyle) {
@@ -224,10 +349,7 @@ public class MarkdownTextInputDecoratorView extends ReactViewGroup {
 
   protected void applyNewStyles() {
     if (mReactEditText != null && mMarkdownUtils != null) {
-      Editable editable = mReactEditText.getText();
-      if (editable instanceof SpannableStringBuilder ssb) {
-        updateCursorAndFormat(ssb);
-      }
+      scheduleFormat();
     }
   }
 }
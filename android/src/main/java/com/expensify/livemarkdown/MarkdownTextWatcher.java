@@ -20,7 +20,7 @@ public class MarkdownTextWatcher implements TextWatcher {
 
   @Override
   public void onTextChanged(CharSequence s, int start, int before, int count) {
-
+    mMarkdownUtils.onTextChanged(start, before, count);
   }
 
   @Override
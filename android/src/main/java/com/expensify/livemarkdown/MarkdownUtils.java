@@ -1,47 +1,698 @@
 package com.expensify.livemarkdown;
 
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Layout;
 import android.text.SpannableStringBuilder;
+import android.text.TextUtils;
+import android.view.Choreographer;
+import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.util.RNLog;
 import com.facebook.systrace.Systrace;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class MarkdownUtils {
   public MarkdownUtils(@NonNull ReactContext reactContext) {
+    mReactContext = reactContext;
     mMarkdownParser = new MarkdownParser(reactContext);
     mMarkdownFormatter = new MarkdownFormatter(reactContext.getAssets());
   }
 
+  // Covers block and inline syntax of the default parser, so that warm-up reaches most code paths
+  private static final String[] WARM_UP_TEXTS = {
+    "Hello *world*",
+    "# Heading\n> Quote with *bold*, _italic_, ~strikethrough~ and `code`\n\n"
+      + "**Bold** and __underline__ with a [link](https://example.com) and ![image](https://example.com/image.png)\n"
+      + "- List item with @mention and #room\n1. Ordered item\n- [x] Task\n\n"
+      + "```\ncode block\n```\n| a | b |\n| --- | :-: |\n| 1 | 2 |\n\uD83D\uDE00 :smile:",
+  };
+
+  // Texts shorter than this are styled completely, viewport formatting isn't worth it for them
+  private static final int VIEWPORT_FORMATTING_MIN_LENGTH = 10000;
+
+  // Time a frame spends on applying a format before the rest is left to the following frames
+  private static final long FRAME_BUDGET_NANOS = 8000000;
+
+  private static volatile boolean sAsyncParsingEnabled = false;
+  private static volatile boolean sFrameBudgetedFormattingEnabled = false;
+  private static volatile boolean sViewportFormattingEnabled = false;
+  private static volatile boolean sWarmUpEnabled = false;
+
+  private static boolean sIsWarmUpStarted = false;
+
+  // Parsers that have already run the warm-up texts
+  private static final Set<Integer> sWarmedUpParserIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
+  private static ExecutorService sParseExecutor;
+
+  // Instances with a pending parse request, drained together so that their texts are parsed in batches
+  private static final Queue<MarkdownUtils> sPendingParseQueue = new ConcurrentLinkedQueue<>();
+
+  private final @NonNull ReactContext mReactContext;
   private final @NonNull MarkdownParser mMarkdownParser;
   private final @NonNull MarkdownFormatter mMarkdownFormatter;
+  private final @NonNull Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+  // Input showing the formatted text, span changes are applied to it in a single batch edit
+  private @Nullable TextView mTextView;
 
   private MarkdownStyle mMarkdownStyle;
   private int mParserId;
   private int mCursorPosition = -1;
 
+  // Last parse result applied and the edits made to its text since then, used for incremental parsing
+  private String mPrevText;
+  private int mPrevParserId;
+  private MarkdownRanges mPrevMarkdownRanges;
+  private final @NonNull TextEdit mEdit = new TextEdit();
+
+  // Edits made since the last parse request, they're what remains of mEdit once its result is applied
+  private final @NonNull TextEdit mEditSinceRequest = new TextEdit();
+
+  // Lines of the last formatted text, updated from the same edits as incremental parsing
+  private final @NonNull MarkdownLineIndex mLineIndex = new MarkdownLineIndex();
+
+  // Region that the last format styled completely, see updateStyledRegion
+  private int mStyledRegionStart = 0;
+  private int mStyledRegionEnd = Integer.MAX_VALUE;
+  private final @NonNull Rect mVisibleRect = new Rect();
+
+  // Latest text waiting for the parse executor, older requests are replaced instead of queued
+  private final AtomicReference<ParseRequest> mPendingParseRequest = new AtomicReference<>();
+  private int mParseGeneration;
+
+  // Whether the result of the last parse request is still to come, it may be parsed already
+  private boolean mIsParsePending;
+
+  // Text whose format is applied over several frames and the parse generation it was started in
+  private final Choreographer.FrameCallback mResumeFormatCallback = frameTimeNanos -> resumeFormat();
+  private @Nullable SpannableStringBuilder mResumedSsb;
+  private int mResumedGeneration;
+
+  private static class ParseRequest {
+    private final int mGeneration;
+    private final @NonNull SpannableStringBuilder mSsb;
+    private final @NonNull String mText;
+    private final int mParserId;
+    private final String mPrevText;
+    private final MarkdownRanges mPrevMarkdownRanges;
+    private final int mEditStart;
+    private final int mEditRemovedLength;
+    private final int mEditInsertedLength;
+
+    ParseRequest(int generation, @NonNull SpannableStringBuilder ssb, @NonNull String text, int parserId, String prevText, MarkdownRanges prevMarkdownRanges, int editStart, int editRemovedLength, int editInsertedLength) {
+      mGeneration = generation;
+      mSsb = ssb;
+      mText = text;
+      mParserId = parserId;
+      mPrevText = prevText;
+      mPrevMarkdownRanges = prevMarkdownRanges;
+      mEditStart = editStart;
+      mEditRemovedLength = editRemovedLength;
+      mEditInsertedLength = editInsertedLength;
+    }
+  }
+
+  /**
+   * Single replacement that turns a text into a newer one, covering all edits made in between.
+   */
+  private static final class TextEdit {
+    private int mStart = -1;
+    private int mRemovedLength;
+    private int mInsertedLength;
+
+    /**
+     * Extends the edit with one made to the newer text.
+     */
+    void add(int start, int removedLength, int insertedLength) {
+      if (mStart == -1) {
+        mStart = start;
+        mRemovedLength = removedLength;
+        mInsertedLength = insertedLength;
+        return;
+      }
+      // Bounds covering both edits in the text between them
+      int coveredStart = Math.min(mStart, start);
+      int coveredEnd = Math.max(mStart + mInsertedLength, start + removedLength);
+      int removed = coveredEnd - (mInsertedLength - mRemovedLength) - coveredStart;
+      int inserted = coveredEnd + (insertedLength - removedLength) - coveredStart;
+      mStart = coveredStart;
+      mRemovedLength = removed;
+      mInsertedLength = inserted;
+    }
+
+    void set(@NonNull TextEdit edit) {
+      mStart = edit.mStart;
+      mRemovedLength = edit.mRemovedLength;
+      mInsertedLength = edit.mInsertedLength;
+    }
+
+    void clear() {
+      mStart = -1;
+    }
+
+    boolean isEmpty() {
+      return mStart == -1;
+    }
+  }
+
+  /**
+   * Moves worklet parsing of decorated inputs off the UI thread. Measurement always parses synchronously.
+   */
+  public static void setAsyncParsingEnabled(boolean enabled) {
+    sAsyncParsingEnabled = enabled;
+  }
+
+  /**
+   * Limits the time a format of a decorated input spends per frame, e.g. after pasting or loading a
+   * long text. The line of the cursor and the visible part of the input are styled first and the
+   * rest on the following frames, unless the text changes before that. Only applying the spans is
+   * budgeted: the first frame still plans the whole format and compares it with the current spans,
+   * which takes time linear in the number of ranges and spans on top of its budget.
+   */
+  public static void setFrameBudgetedFormattingEnabled(boolean enabled) {
+    sFrameBudgetedFormattingEnabled = enabled;
+  }
+
+  /**
+   * Styles long texts fully only around the part visible in the input, plus a screen above and
+   * below it. Other regions are styled as they're scrolled into view, while spans that affect
+   * layout are set in the whole text so that scrolling doesn't jump.
+   */
+  public static void setViewportFormattingEnabled(boolean enabled) {
+    sViewportFormattingEnabled = enabled;
+  }
+
+  /**
+   * Runs synthetic documents through parsing and formatting on a background thread when the first
+   * decorator attaches and when a parser is first used, so that the first keystroke doesn't pay for
+   * class loading, JNI binding and JIT compilation of the parser.
+   */
+  public static void setWarmUpEnabled(boolean enabled) {
+    sWarmUpEnabled = enabled;
+  }
+
+  /**
+   * Warms up the default parser engine as far as it doesn't depend on a parser, called when the
+   * first decorator attaches. Must be called on the main thread.
+   */
+  public static void warmUp() {
+    if (!sWarmUpEnabled || sIsWarmUpStarted) {
+      return;
+    }
+    sIsWarmUpStarted = true;
+    getParseExecutor().execute(() -> {
+      long startTime = System.nanoTime();
+      try {
+        Systrace.beginSection(0, "warmUp");
+        MarkdownParserEngine parserEngine = MarkdownParser.getDefaultParserEngine();
+        // The worklet runs only once a parser is registered, warmUpParser covers it
+        if (parserEngine instanceof WorkletMarkdownParserEngine) {
+          WorkletMarkdownParserEngine.syncRangeTypes();
+        } else {
+          parserEngine.parse(WARM_UP_TEXTS[1], 0, new MarkdownRanges());
+        }
+      } catch (Exception e) {
+        // Warm-up is best effort, the first parse reports errors
+      } finally {
+        Systrace.endSection(0);
+      }
+      RNLog.l("[react-native-live-markdown] Warm-up took " + (System.nanoTime() - startTime) / 1000000 + " ms");
+    });
+  }
+
+  /**
+   * Parses and formats the warm-up texts with the current parser and style, once per parser. The
+   * parse cache is left to texts of inputs.
+   */
+  private void warmUpParser() {
+    // parserId 0 means that it wasn't set yet
+    if (!sWarmUpEnabled || mMarkdownStyle == null || mParserId == 0 || !sWarmedUpParserIds.add(mParserId)) {
+      return;
+    }
+    int parserId = mParserId;
+    MarkdownStyle markdownStyle = mMarkdownStyle;
+    getParseExecutor().execute(() -> {
+      long startTime = System.nanoTime();
+      try {
+        Systrace.beginSection(0, "warmUpParser");
+        // A formatter of its own, as the one of this instance is used on the main thread
+        MarkdownFormatter markdownFormatter = new MarkdownFormatter(mReactContext.getAssets());
+        MarkdownLineIndex lineIndex = new MarkdownLineIndex();
+        for (String text : WARM_UP_TEXTS) {
+          MarkdownRanges markdownRanges = mMarkdownParser.parseUncached(text, parserId);
+          lineIndex.update(text, -1, 0, 0);
+          markdownFormatter.format(new SpannableStringBuilder(text), markdownRanges, markdownStyle, -1, lineIndex);
+        }
+      } catch (Exception e) {
+        // Warm-up is best effort, the first parse reports errors
+      } finally {
+        Systrace.endSection(0);
+      }
+      RNLog.l("[react-native-live-markdown] Warm-up of parser " + parserId + " took " + (System.nanoTime() - startTime) / 1000000 + " ms");
+    });
+  }
+
+  private static synchronized ExecutorService getParseExecutor() {
+    if (sParseExecutor == null) {
+      sParseExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "LiveMarkdownParser");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return sParseExecutor;
+  }
+
   public void setMarkdownStyle(@NonNull MarkdownStyle markdownStyle) {
     mMarkdownStyle = markdownStyle;
+    warmUpParser();
   }
 
   public void setParserId(int parserId) {
     mParserId = parserId;
+    warmUpParser();
+  }
+
+  public void setTextView(@Nullable TextView textView) {
+    mTextView = textView;
   }
 
   public void setCursorPosition(int cursorPosition) {
     mCursorPosition = cursorPosition;
   }
 
+  /**
+   * Shows and hides syntax for a cursor that moved while the text stayed the same. Reuses the ranges
+   * and spans of the last format and only toggles syntax whose visibility changes, falling back to
+   * a format when the text changed since. Must be called on the main thread.
+   */
+  public void updateCursorPosition(SpannableStringBuilder ssb, int cursorPosition) {
+    mCursorPosition = cursorPosition;
+    // A pending format uses the new cursor position
+    if (!mEdit.isEmpty() || mIsParsePending) {
+      return;
+    }
+    boolean isUpdated;
+    TextView textView = beginBatchEdit(ssb);
+    try {
+      isUpdated = mPrevMarkdownRanges != null && mPrevParserId == mParserId && mMarkdownFormatter.updateCursorPosition(ssb, mPrevMarkdownRanges, mMarkdownStyle, cursorPosition);
+    } finally {
+      endBatchEdit(textView);
+    }
+    if (!isUpdated) {
+      applyMarkdownFormattingAsync(ssb);
+    }
+  }
+
+  /**
+   * Returns the line (0-indexed) of `position` in the last formatted text.
+   */
+  public int getLineNumber(int position) {
+    return mLineIndex.getLineNumber(position);
+  }
+
+  /**
+   * Records an edit reported by `TextWatcher.onTextChanged` so that the next format can reparse
+   * only the blocks it touched. Edits are relative to the text of the last parse result applied,
+   * which a parse in flight doesn't change until its result arrives.
+   */
+  public void onTextChanged(int start, int before, int count) {
+    mEdit.add(start, before, count);
+    mEditSinceRequest.add(start, before, count);
+  }
+
+  /**
+   * Called when the input shows a different text object, e.g. after `setText`. Edits reported so
+   * far were made to the previous one, so the next parse and line index update don't use them, and
+   * parses and formats still in flight for it are dropped.
+   */
+  public void onTextReplaced() {
+    cancelPendingParse();
+    mPrevText = null;
+    mEdit.clear();
+    mEditSinceRequest.clear();
+  }
+
   public void applyMarkdownFormatting(SpannableStringBuilder ssb) {
     try {
       Systrace.beginSection(0, "applyMarkdownFormatting");
-      List<MarkdownRange> markdownRanges = mMarkdownParser.parse(ssb.toString(), mParserId);
+      // Any parse still in flight is older than this one
+      mParseGeneration++;
+      mIsParsePending = false;
+      String text = ssb.toString();
+      MarkdownRanges markdownRanges = parse(text, mParserId, mPrevParserId == mParserId ? mPrevText : null, mPrevMarkdownRanges, mEdit.mStart, mEdit.mRemovedLength, mEdit.mInsertedLength);
+      mPrevText = text;
+      mPrevParserId = mParserId;
+      mPrevMarkdownRanges = markdownRanges;
+      mLineIndex.update(text, mEdit.mStart, mEdit.mRemovedLength, mEdit.mInsertedLength);
+      mEdit.clear();
+      mEditSinceRequest.clear();
       // Pass cursor position to formatter for syntax hiding
-      mMarkdownFormatter.format(ssb, markdownRanges, mMarkdownStyle, mCursorPosition);
+      format(ssb, markdownRanges);
     } finally {
       Systrace.endSection(0);
     }
   }
+
+  /**
+   * Parses the text on the parse executor and formats `ssb` on the main thread once the ranges are
+   * ready. Bursts of calls are coalesced into a parse of the latest text and results for text that
+   * changed in the meantime are dropped. Must be called on the main thread.
+   */
+  public void applyMarkdownFormattingAsync(SpannableStringBuilder ssb) {
+    if (!sAsyncParsingEnabled) {
+      applyMarkdownFormatting(ssb);
+      return;
+    }
+
+    // The parse executor needs a copy, as the text may change while it's parsed
+    ParseRequest request = new ParseRequest(
+      ++mParseGeneration,
+      ssb,
+      ssb.toString(),
+      mParserId,
+      mPrevParserId == mParserId ? mPrevText : null,
+      mPrevMarkdownRanges,
+      mEdit.mStart,
+      mEdit.mRemovedLength,
+      mEdit.mInsertedLength);
+    mEditSinceRequest.clear();
+    mIsParsePending = true;
+
+    if (mPendingParseRequest.getAndSet(request) == null) {
+      sPendingParseQueue.add(this);
+      getParseExecutor().execute(MarkdownUtils::runPendingParseRequests);
+    }
+  }
+
+  /**
+   * Drops results of parses that are still in flight, and the rest of a format applied over several frames.
+   */
+  public void cancelPendingParse() {
+    mParseGeneration++;
+    mPendingParseRequest.set(null);
+    mIsParsePending = false;
+    cancelResumedFormat();
+  }
+
+  /**
+   * Parses requests of all instances queued so far. Full parses with the same parser are done with
+   * a single call to the parser, for instance when a list of inputs is mounted at once.
+   */
+  private static void runPendingParseRequests() {
+    List<MarkdownUtils> owners = new ArrayList<>();
+    List<ParseRequest> requests = new ArrayList<>();
+    MarkdownUtils owner;
+    while ((owner = sPendingParseQueue.poll()) != null) {
+      ParseRequest request = owner.mPendingParseRequest.getAndSet(null);
+      if (request != null) {
+        owners.add(owner);
+        requests.add(request);
+      }
+    }
+
+    int size = requests.size();
+    MarkdownRanges[] results = new MarkdownRanges[size];
+    for (int i = 0; i < size; i++) {
+      ParseRequest request = requests.get(i);
+      if (request.mEditStart != -1 && request.mPrevText != null) {
+        results[i] = owners.get(i).parse(request.mText, request.mParserId, request.mPrevText, request.mPrevMarkdownRanges, request.mEditStart, request.mEditRemovedLength, request.mEditInsertedLength);
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      if (results[i] != null) {
+        continue;
+      }
+      int parserId = requests.get(i).mParserId;
+      List<Integer> batch = new ArrayList<>();
+      for (int j = i; j < size; j++) {
+        if (results[j] == null && requests.get(j).mParserId == parserId) {
+          batch.add(j);
+        }
+      }
+      String[] texts = new String[batch.size()];
+      for (int j = 0; j < texts.length; j++) {
+        texts[j] = requests.get(batch.get(j)).mText;
+      }
+      MarkdownRanges[] batchResults = owners.get(i).mMarkdownParser.parseBatch(texts, parserId);
+      for (int j = 0; j < texts.length; j++) {
+        results[batch.get(j)] = batchResults[j];
+      }
+    }
+
+    for (int i = 0; i < size; i++) {
+      owners.get(i).postParseResult(requests.get(i), results[i]);
+    }
+  }
+
+  /**
+   * Parses the texts that instances are about to format synchronously, e.g. a list of inputs
+   * mounted in the same frame, with a single call to the parser for each parser id. Their formats
+   * then take the ranges from the parse cache. Texts that will be parsed incrementally or on the
+   * parse executor, which batches requests itself, are skipped. Must be called on the main thread.
+   */
+  public static void prefetchParses(@NonNull List<MarkdownUtils> markdownUtilsList, @NonNull List<? extends CharSequence> texts) {
+    if (sAsyncParsingEnabled) {
+      return;
+    }
+    List<MarkdownUtils> owners = new ArrayList<>();
+    List<String> ownerTexts = new ArrayList<>();
+    for (int i = 0; i < markdownUtilsList.size(); i++) {
+      MarkdownUtils owner = markdownUtilsList.get(i);
+      if (owner.mEdit.isEmpty() || owner.mPrevText == null || owner.mPrevParserId != owner.mParserId) {
+        owners.add(owner);
+        ownerTexts.add(texts.get(i).toString());
+      }
+    }
+
+    boolean[] isParsed = new boolean[owners.size()];
+    for (int i = 0; i < owners.size(); i++) {
+      if (isParsed[i]) {
+        continue;
+      }
+      int parserId = owners.get(i).mParserId;
+      List<String> batch = new ArrayList<>();
+      for (int j = i; j < owners.size(); j++) {
+        if (!isParsed[j] && owners.get(j).mParserId == parserId) {
+          batch.add(ownerTexts.get(j));
+          isParsed[j] = true;
+        }
+      }
+      // A single text is parsed by its own format just as fast
+      if (batch.size() > 1) {
+        owners.get(i).mMarkdownParser.parseBatch(batch.toArray(new String[0]), parserId);
+      }
+    }
+  }
+
+  private void postParseResult(@NonNull ParseRequest request, @NonNull MarkdownRanges markdownRanges) {
+    mMainHandler.post(() -> {
+      // Text set from JS doesn't go through this class, so the content is checked as well
+      if (request.mGeneration != mParseGeneration) {
+        return;
+      }
+      mIsParsePending = false;
+      if (!TextUtils.equals(request.mSsb, request.mText)) {
+        return;
+      }
+      mPrevText = request.mText;
+      mPrevParserId = request.mParserId;
+      mPrevMarkdownRanges = markdownRanges;
+      mEdit.set(mEditSinceRequest);
+      mEditSinceRequest.clear();
+      try {
+        Systrace.beginSection(0, "applyMarkdownFormattingAsync");
+        mLineIndex.update(request.mText, request.mEditStart, request.mEditRemovedLength, request.mEditInsertedLength);
+        format(request.mSsb, markdownRanges);
+      } finally {
+        Systrace.endSection(0);
+      }
+    });
+  }
+
+  /**
+   * Styles regions scrolled into view since the last format, called when the input or one of its
+   * parents scrolls. Must be called on the main thread.
+   */
+  public void onViewportChanged(SpannableStringBuilder ssb) {
+    if (!sViewportFormattingEnabled || mPrevMarkdownRanges == null || ssb.length() < VIEWPORT_FORMATTING_MIN_LENGTH) {
+      return;
+    }
+    // A pending format styles the new viewport
+    if (!mEdit.isEmpty() || mIsParsePending) {
+      return;
+    }
+    Layout layout = getVisibleLayout(ssb);
+    if (layout == null) {
+      return;
+    }
+    int visibleStart = layout.getLineStart(layout.getLineForVertical(getVisibleTop()));
+    int visibleEnd = layout.getLineEnd(layout.getLineForVertical(getVisibleBottom()));
+    // Text set from JS doesn't go through this class, it's formatted by the decorator
+    if ((visibleStart >= mStyledRegionStart && visibleEnd <= mStyledRegionEnd) || !TextUtils.equals(ssb, mPrevText)) {
+      return;
+    }
+    try {
+      Systrace.beginSection(0, "onViewportChanged");
+      format(ssb, mPrevMarkdownRanges);
+    } finally {
+      Systrace.endSection(0);
+    }
+  }
+
+  private void format(@NonNull SpannableStringBuilder ssb, @NonNull MarkdownRanges markdownRanges) {
+    cancelResumedFormat();
+    updateStyledRegion(ssb);
+    TextView textView = beginBatchEdit(ssb);
+    try {
+      // Inputs that aren't shown, e.g. while measuring, are formatted at once
+      if (!sFrameBudgetedFormattingEnabled || textView == null) {
+        mMarkdownFormatter.format(ssb, markdownRanges, mMarkdownStyle, mCursorPosition, mLineIndex);
+        return;
+      }
+      Layout layout = getVisibleLayout(ssb);
+      int visibleStart = layout != null ? layout.getLineStart(layout.getLineForVertical(getVisibleTop())) : 0;
+      int visibleEnd = layout != null ? layout.getLineEnd(layout.getLineForVertical(getVisibleBottom())) : 0;
+      mMarkdownFormatter.startFormat(ssb, markdownRanges, mMarkdownStyle, mCursorPosition, mLineIndex, visibleStart, visibleEnd);
+      // Planning isn't resumable, the budget only bounds applying the spans
+      long deadlineNanos = System.nanoTime() + FRAME_BUDGET_NANOS;
+      if (!mMarkdownFormatter.resumeFormat(deadlineNanos)) {
+        mResumedSsb = ssb;
+        mResumedGeneration = mParseGeneration;
+        Choreographer.getInstance().postFrameCallback(mResumeFormatCallback);
+      }
+    } finally {
+      endBatchEdit(textView);
+    }
+  }
+
+  /**
+   * Applies the next parts of a format that didn't fit in the previous frame.
+   */
+  private void resumeFormat() {
+    SpannableStringBuilder ssb = mResumedSsb;
+    mResumedSsb = null;
+    if (ssb == null) {
+      return;
+    }
+    // Formats requested since then are for a newer text, and text set from JS doesn't go through
+    // this class at all
+    if (mResumedGeneration != mParseGeneration || !TextUtils.equals(ssb, mLineIndex.getText())) {
+      mMarkdownFormatter.cancelFormat();
+      return;
+    }
+    long deadlineNanos = System.nanoTime() + FRAME_BUDGET_NANOS;
+    TextView textView = beginBatchEdit(ssb);
+    try {
+      Systrace.beginSection(0, "resumeFormat");
+      if (!mMarkdownFormatter.resumeFormat(deadlineNanos)) {
+        mResumedSsb = ssb;
+        Choreographer.getInstance().postFrameCallback(mResumeFormatCallback);
+      }
+    } finally {
+      Systrace.endSection(0);
+      endBatchEdit(textView);
+    }
+  }
+
+  private void cancelResumedFormat() {
+    if (mResumedSsb != null) {
+      mResumedSsb = null;
+      mMarkdownFormatter.cancelFormat();
+      Choreographer.getInstance().removeFrameCallback(mResumeFormatCallback);
+    }
+  }
+
+  /**
+   * Sets the region that the formatter styles completely to the visible part of the input with a
+   * margin of its visible height on both sides, or to the whole text.
+   */
+  private void updateStyledRegion(@NonNull SpannableStringBuilder ssb) {
+    Layout layout = sViewportFormattingEnabled && ssb.length() >= VIEWPORT_FORMATTING_MIN_LENGTH ? getVisibleLayout(ssb) : null;
+    if (layout == null) {
+      mStyledRegionStart = 0;
+      mStyledRegionEnd = Integer.MAX_VALUE;
+    } else {
+      int margin = mVisibleRect.height();
+      mStyledRegionStart = layout.getLineStart(layout.getLineForVertical(Math.max(getVisibleTop() - margin, 0)));
+      mStyledRegionEnd = Math.min(layout.getLineEnd(layout.getLineForVertical(getVisibleBottom() + margin)), ssb.length());
+    }
+    mMarkdownFormatter.setStyledRegion(mStyledRegionStart, mStyledRegionEnd);
+  }
+
+  /**
+   * Returns the layout of the input showing `ssb` and updates mVisibleRect to the part of the input
+   * on screen, or returns null when it's not laid out or not visible.
+   */
+  @Nullable
+  private Layout getVisibleLayout(@NonNull SpannableStringBuilder ssb) {
+    TextView textView = mTextView;
+    if (textView == null || textView.getText() != ssb) {
+      return null;
+    }
+    Layout layout = textView.getLayout();
+    // Local coordinates include the scroll position of the input itself
+    if (layout == null || layout.getText() != ssb || !textView.getLocalVisibleRect(mVisibleRect)) {
+      return null;
+    }
+    return layout;
+  }
+
+  // Bounds of mVisibleRect in layout coordinates
+  private int getVisibleTop() {
+    return Math.max(mVisibleRect.top - mTextView.getTotalPaddingTop(), 0);
+  }
+
+  private int getVisibleBottom() {
+    return Math.max(mVisibleRect.bottom - mTextView.getTotalPaddingTop(), 0);
+  }
+
+  /**
+   * Starts a batch edit of the input showing `ssb`, so that it invalidates, checks its size and
+   * updates the keyboard once after all spans are removed and set instead of after each of them.
+   * Span watchers of the text, like the one of DynamicLayout, are still notified of each span.
+   * Returns the input to pass to endBatchEdit, or null when `ssb` isn't shown by it.
+   */
+  @Nullable
+  private TextView beginBatchEdit(@NonNull SpannableStringBuilder ssb) {
+    TextView textView = mTextView;
+    if (textView == null || textView.getText() != ssb) {
+      return null;
+    }
+    textView.beginBatchEdit();
+    return textView;
+  }
+
+  private static void endBatchEdit(@Nullable TextView textView) {
+    if (textView != null) {
+      textView.endBatchEdit();
+    }
+  }
+
+  /**
+   * `prevText` must be null when it was parsed with a different parser.
+   */
+  private MarkdownRanges parse(@NonNull String text, int parserId, String prevText, MarkdownRanges prevMarkdownRanges, int editStart, int editRemovedLength, int editInsertedLength) {
+    if (editStart != -1 && prevText != null) {
+      return mMarkdownParser.parseIncremental(text, parserId, prevText, prevMarkdownRanges, editStart, editRemovedLength, editInsertedLength);
+    }
+    return mMarkdownParser.parse(text, parserId);
+  }
+
 }
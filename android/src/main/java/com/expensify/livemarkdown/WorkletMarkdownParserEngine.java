@@ -0,0 +1,70 @@
+package com.expensify.livemarkdown;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Runs the worklet registered from JS under `parserId` on the markdown runtime.
+ */
+public class WorkletMarkdownParserEngine implements MarkdownParserEngine {
+  // Each range is packed as: type id, start, length, depth, table column, table alignment id, table column count
+  private static final int RANGE_FIELD_COUNT = 7;
+
+  // Number of MarkdownRangeType names last sent to native code
+  private static volatile int sSyncedRangeTypeCount = 0;
+
+  private native int[] nativeParse(@NonNull String text, int parserId);
+
+  // Starts with the range count of each text, followed by the ranges of all texts
+  private native int[] nativeParseBatch(@NonNull String[] texts, int parserId);
+
+  private static native void nativeSetRangeTypes(@NonNull String[] rangeTypes);
+
+  public WorkletMarkdownParserEngine() {
+    LiveMarkdownLibrary.load();
+  }
+
+  /**
+   * Sends range type names to native code, which packs each range with the id of its type.
+   */
+  static synchronized void syncRangeTypes() {
+    LiveMarkdownLibrary.load();
+    String[] rangeTypes = MarkdownRangeType.getNames();
+    if (rangeTypes.length != sSyncedRangeTypeCount) {
+      nativeSetRangeTypes(rangeTypes);
+      sSyncedRangeTypeCount = rangeTypes.length;
+    }
+  }
+
+  @Override
+  public void parse(@NonNull String text, int parserId, @NonNull MarkdownRanges markdownRanges) {
+    if (sSyncedRangeTypeCount != MarkdownRangeType.getCount()) {
+      syncRangeTypes();
+    }
+    int[] packedRanges = nativeParse(text, parserId);
+    unpackRanges(packedRanges, 0, packedRanges.length / RANGE_FIELD_COUNT, markdownRanges);
+  }
+
+  /**
+   * Runs the worklet for all texts in a single JNI call.
+   */
+  @Override
+  public void parseBatch(@NonNull String[] texts, int parserId, @NonNull MarkdownRanges[] markdownRanges) {
+    if (sSyncedRangeTypeCount != MarkdownRangeType.getCount()) {
+      syncRangeTypes();
+    }
+    int[] packedRanges = nativeParseBatch(texts, parserId);
+    int offset = texts.length;
+    for (int i = 0; i < texts.length; i++) {
+      unpackRanges(packedRanges, offset, packedRanges[i], markdownRanges[i]);
+      offset += packedRanges[i] * RANGE_FIELD_COUNT;
+    }
+  }
+
+  private static void unpackRanges(@NonNull int[] packedRanges, int offset, int count, @NonNull MarkdownRanges markdownRanges) {
+    markdownRanges.ensureCapacity(markdownRanges.size() + count);
+    for (int i = offset; i < offset + count * RANGE_FIELD_COUNT; i += RANGE_FIELD_COUNT) {
+      int start = packedRanges[i + 1];
+      markdownRanges.add(packedRanges[i], start, start + packedRanges[i + 2], packedRanges[i + 3], packedRanges[i + 4], packedRanges[i + 5], packedRanges[i + 6]);
+    }
+  }
+}
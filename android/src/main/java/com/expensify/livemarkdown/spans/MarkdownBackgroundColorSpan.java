@@ -3,9 +3,21 @@ package com.expensify.livemarkdown.spans;
 import android.text.style.BackgroundColorSpan;
 
 import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
 
 public class MarkdownBackgroundColorSpan extends BackgroundColorSpan implements MarkdownSpan {
   public MarkdownBackgroundColorSpan(@ColorInt int color) {
     super(color);
   }
+
+  @Override
+  public boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    return other instanceof MarkdownBackgroundColorSpan && ((MarkdownBackgroundColorSpan) other).getBackgroundColor() == getBackgroundColor();
+  }
+
+  @NonNull
+  @Override
+  public MarkdownSpan copy() {
+    return new MarkdownBackgroundColorSpan(getBackgroundColor());
+  }
 }
@@ -91,4 +91,14 @@ public class MarkdownBackgroundSpan implements MarkdownSpan, LineBackgroundSpan
 
     return radii;
   }
+
+  @Override
+  public boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    if (!(other instanceof MarkdownBackgroundSpan)) {
+      return false;
+    }
+    // Mention bounds are stored in the span, so a span moved by an edit is not equivalent
+    MarkdownBackgroundSpan span = (MarkdownBackgroundSpan) other;
+    return span.backgroundColor == backgroundColor && span.borderRadius == borderRadius && span.mentionStart == mentionStart && span.mentionEnd == mentionEnd;
+  }
 }
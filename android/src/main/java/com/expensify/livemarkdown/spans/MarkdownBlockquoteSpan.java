@@ -6,6 +6,7 @@ import android.text.Layout;
 import android.text.style.LeadingMarginSpan;
 
 import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
 
 import com.facebook.react.uimanager.PixelUtil;
 
@@ -25,6 +26,14 @@ public class MarkdownBlockquoteSpan implements MarkdownSpan, LeadingMarginSpan {
     this.nestingLevel = nestingLevel;
   }
 
+  private MarkdownBlockquoteSpan(@NonNull MarkdownBlockquoteSpan span) {
+    this.borderColor = span.borderColor;
+    this.borderWidth = span.borderWidth;
+    this.marginLeft = span.marginLeft;
+    this.paddingLeft = span.paddingLeft;
+    this.nestingLevel = span.nestingLevel;
+  }
+
   @Override
   public int getLeadingMargin(boolean first) {
     return (int) (marginLeft + borderWidth + paddingLeft) * nestingLevel;
@@ -49,4 +58,19 @@ public class MarkdownBlockquoteSpan implements MarkdownSpan, LeadingMarginSpan {
     p.setStyle(originalStyle);
     p.setColor(originalColor);
   }
+
+  @Override
+  public boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    if (!(other instanceof MarkdownBlockquoteSpan)) {
+      return false;
+    }
+    MarkdownBlockquoteSpan span = (MarkdownBlockquoteSpan) other;
+    return span.borderColor == borderColor && span.borderWidth == borderWidth && span.marginLeft == marginLeft && span.paddingLeft == paddingLeft && span.nestingLevel == nestingLevel;
+  }
+
+  @NonNull
+  @Override
+  public MarkdownSpan copy() {
+    return new MarkdownBlockquoteSpan(this);
+  }
 }
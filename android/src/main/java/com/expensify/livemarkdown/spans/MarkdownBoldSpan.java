@@ -3,8 +3,21 @@ package com.expensify.livemarkdown.spans;
 import android.graphics.Typeface;
 import android.text.style.StyleSpan;
 
+import androidx.annotation.NonNull;
+
 public class MarkdownBoldSpan extends StyleSpan implements MarkdownSpan {
   public MarkdownBoldSpan() {
     super(Typeface.BOLD);
   }
+
+  @Override
+  public boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    return other instanceof MarkdownBoldSpan;
+  }
+
+  @NonNull
+  @Override
+  public MarkdownSpan copy() {
+    return new MarkdownBoldSpan();
+  }
 }
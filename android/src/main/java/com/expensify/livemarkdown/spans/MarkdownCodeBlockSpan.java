@@ -5,6 +5,7 @@ import android.graphics.Paint;
 import android.text.style.LineBackgroundSpan;
 
 import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
 
 public class MarkdownCodeBlockSpan implements MarkdownSpan, LineBackgroundSpan {
   @ColorInt
@@ -29,4 +30,15 @@ public class MarkdownCodeBlockSpan implements MarkdownSpan, LineBackgroundSpan {
     paint.setColor(originalColor);
     paint.setStyle(originalStyle);
   }
+
+  @Override
+  public boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    return other instanceof MarkdownCodeBlockSpan && ((MarkdownCodeBlockSpan) other).backgroundColor == backgroundColor;
+  }
+
+  @NonNull
+  @Override
+  public MarkdownSpan copy() {
+    return new MarkdownCodeBlockSpan(backgroundColor);
+  }
 }
@@ -12,12 +12,15 @@ import com.facebook.react.common.assets.ReactFontManager;
 
 public class MarkdownFontFamilySpan extends MetricAffectingSpan implements MarkdownSpan {
 
-  private final @NonNull String mFontFamily;
-  private final @NonNull AssetManager mAssetManager;
+  // Shared with copies of the span
+  private final @NonNull MarkdownTypefaceCache mTypefaceCache;
 
   public MarkdownFontFamilySpan(@NonNull String fontFamily, @NonNull AssetManager assetManager) {
-    mFontFamily = fontFamily;
-    mAssetManager = assetManager;
+    this(new MarkdownTypefaceCache(fontFamily, assetManager));
+  }
+
+  private MarkdownFontFamilySpan(@NonNull MarkdownTypefaceCache typefaceCache) {
+    mTypefaceCache = typefaceCache;
   }
 
   @Override
@@ -32,8 +35,23 @@ public class MarkdownFontFamilySpan extends MetricAffectingSpan implements Markd
 
   private void apply(@NonNull TextPaint textPaint) {
     int style = textPaint.getTypeface() != null ? textPaint.getTypeface().getStyle() : ReactFontManager.TypefaceStyle.NORMAL;
-    Typeface typeface = ReactFontManager.getInstance().getTypeface(mFontFamily, style, mAssetManager);
+    Typeface typeface = mTypefaceCache.getTypeface(style);
     textPaint.setTypeface(typeface);
     textPaint.setFlags(textPaint.getFlags() | Paint.SUBPIXEL_TEXT_FLAG);
   }
+
+  @Override
+  public boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    if (!(other instanceof MarkdownFontFamilySpan)) {
+      return false;
+    }
+    MarkdownFontFamilySpan span = (MarkdownFontFamilySpan) other;
+    return span.mTypefaceCache.getFontFamily().equals(mTypefaceCache.getFontFamily()) && span.mTypefaceCache.getAssetManager() == mTypefaceCache.getAssetManager();
+  }
+
+  @NonNull
+  @Override
+  public MarkdownSpan copy() {
+    return new MarkdownFontFamilySpan(mTypefaceCache);
+  }
 }
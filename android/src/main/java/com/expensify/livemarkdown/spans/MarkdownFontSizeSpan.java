@@ -2,10 +2,27 @@ package com.expensify.livemarkdown.spans;
 
 import android.text.style.AbsoluteSizeSpan;
 
+import androidx.annotation.NonNull;
+
 import com.facebook.react.uimanager.PixelUtil;
 
 public class MarkdownFontSizeSpan extends AbsoluteSizeSpan implements MarkdownSpan {
   public MarkdownFontSizeSpan(float fontSize) {
     super((int) PixelUtil.toPixelFromDIP(fontSize), false);
   }
+
+  private MarkdownFontSizeSpan(@NonNull MarkdownFontSizeSpan span) {
+    super(span.getSize(), false);
+  }
+
+  @Override
+  public boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    return other instanceof MarkdownFontSizeSpan && ((MarkdownFontSizeSpan) other).getSize() == getSize();
+  }
+
+  @NonNull
+  @Override
+  public MarkdownSpan copy() {
+    return new MarkdownFontSizeSpan(this);
+  }
 }
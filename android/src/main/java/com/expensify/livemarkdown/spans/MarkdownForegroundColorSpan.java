@@ -3,9 +3,21 @@ package com.expensify.livemarkdown.spans;
 import android.text.style.ForegroundColorSpan;
 
 import androidx.annotation.ColorInt;
+import androidx.annotation.NonNull;
 
 public class MarkdownForegroundColorSpan extends ForegroundColorSpan implements MarkdownSpan {
   public MarkdownForegroundColorSpan(@ColorInt int color) {
     super(color);
   }
+
+  @Override
+  public boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    return other instanceof MarkdownForegroundColorSpan && ((MarkdownForegroundColorSpan) other).getForegroundColor() == getForegroundColor();
+  }
+
+  @NonNull
+  @Override
+  public MarkdownSpan copy() {
+    return new MarkdownForegroundColorSpan(getForegroundColor());
+  }
 }
@@ -26,4 +26,15 @@ public class MarkdownHiddenSpan extends ReplacementSpan implements MarkdownSpan
                    float x, int top, int y, int bottom, @NonNull Paint paint) {
     // Draw nothing - the text is invisible
   }
+
+  @Override
+  public boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    return other instanceof MarkdownHiddenSpan;
+  }
+
+  @NonNull
+  @Override
+  public MarkdownSpan copy() {
+    return new MarkdownHiddenSpan();
+  }
 }
@@ -3,8 +3,21 @@ package com.expensify.livemarkdown.spans;
 import android.graphics.Typeface;
 import android.text.style.StyleSpan;
 
+import androidx.annotation.NonNull;
+
 public class MarkdownItalicSpan extends StyleSpan implements MarkdownSpan {
   public MarkdownItalicSpan() {
     super(Typeface.ITALIC);
   }
+
+  @Override
+  public boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    return other instanceof MarkdownItalicSpan;
+  }
+
+  @NonNull
+  @Override
+  public MarkdownSpan copy() {
+    return new MarkdownItalicSpan();
+  }
 }
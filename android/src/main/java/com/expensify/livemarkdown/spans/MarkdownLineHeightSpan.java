@@ -3,6 +3,8 @@ package com.expensify.livemarkdown.spans;
 import android.graphics.Paint;
 import android.text.style.LineHeightSpan;
 
+import androidx.annotation.NonNull;
+
 public class MarkdownLineHeightSpan implements MarkdownSpan, LineHeightSpan {
   private final float mLineHeight;
 
@@ -15,4 +17,9 @@ public class MarkdownLineHeightSpan implements MarkdownSpan, LineHeightSpan {
     fm.top -= mLineHeight / 4;
     fm.ascent -= mLineHeight / 4;
   }
+
+  @Override
+  public boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    return other instanceof MarkdownLineHeightSpan && ((MarkdownLineHeightSpan) other).mLineHeight == mLineHeight;
+  }
 }
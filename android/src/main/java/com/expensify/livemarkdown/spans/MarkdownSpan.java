@@ -1,7 +1,26 @@
 package com.expensify.livemarkdown.spans;
 
+import androidx.annotation.NonNull;
+
 /*
  * Enables us to distinguish between spans that were added by Live Markdown and spans that were
  * added by something else. All spans that Live Markdown adds should implement this interface.
  */
-public interface MarkdownSpan {}
+public interface MarkdownSpan {
+  /**
+   * Returns whether `other` looks the same as this span on the same range, which lets the formatter
+   * keep this span in place instead of replacing it. Spans that don't override it are always replaced.
+   */
+  default boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    return false;
+  }
+
+  /**
+   * Returns a new span equivalent to this one, so that a single instance can serve as a prototype
+   * for every range with the same style. Spans that don't override it are set as they are.
+   */
+  @NonNull
+  default MarkdownSpan copy() {
+    return this;
+  }
+}
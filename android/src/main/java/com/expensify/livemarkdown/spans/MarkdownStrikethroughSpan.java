@@ -2,4 +2,17 @@ package com.expensify.livemarkdown.spans;
 
 import android.text.style.StrikethroughSpan;
 
-public class MarkdownStrikethroughSpan extends StrikethroughSpan implements MarkdownSpan {}
+import androidx.annotation.NonNull;
+
+public class MarkdownStrikethroughSpan extends StrikethroughSpan implements MarkdownSpan {
+  @Override
+  public boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    return other instanceof MarkdownStrikethroughSpan;
+  }
+
+  @NonNull
+  @Override
+  public MarkdownSpan copy() {
+    return new MarkdownStrikethroughSpan();
+  }
+}
@@ -0,0 +1,52 @@
+package com.expensify.livemarkdown.spans;
+
+import android.content.res.AssetManager;
+import android.graphics.Typeface;
+
+import androidx.annotation.NonNull;
+
+import com.facebook.react.common.assets.ReactFontManager;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Typefaces of a font family resolved by ReactFontManager, indexed by typeface style. Spans are
+ * measured and drawn run by run and always get the same typeface for the same style, so it's looked
+ * up once. Reads don't lock, a typeface resolved by two threads at once is just looked up twice.
+ */
+public final class MarkdownTypefaceCache {
+  // Typeface.NORMAL, BOLD, ITALIC and BOLD_ITALIC
+  private static final int STYLE_COUNT = 4;
+
+  private final @NonNull String mFontFamily;
+  private final @NonNull AssetManager mAssetManager;
+  private final AtomicReferenceArray<Typeface> mTypefaces = new AtomicReferenceArray<>(STYLE_COUNT);
+
+  MarkdownTypefaceCache(@NonNull String fontFamily, @NonNull AssetManager assetManager) {
+    mFontFamily = fontFamily;
+    mAssetManager = assetManager;
+  }
+
+  @NonNull
+  String getFontFamily() {
+    return mFontFamily;
+  }
+
+  @NonNull
+  AssetManager getAssetManager() {
+    return mAssetManager;
+  }
+
+  Typeface getTypeface(int style) {
+    if (style < 0 || style >= STYLE_COUNT) {
+      return ReactFontManager.getInstance().getTypeface(mFontFamily, style, mAssetManager);
+    }
+    Typeface typeface = mTypefaces.get(style);
+    if (typeface != null) {
+      return typeface;
+    }
+    typeface = ReactFontManager.getInstance().getTypeface(mFontFamily, style, mAssetManager);
+    mTypefaces.set(style, typeface);
+    return typeface;
+  }
+}
@@ -2,4 +2,17 @@ package com.expensify.livemarkdown.spans;
 
 import android.text.style.UnderlineSpan;
 
-public class MarkdownUnderlineSpan extends UnderlineSpan implements MarkdownSpan {}
+import androidx.annotation.NonNull;
+
+public class MarkdownUnderlineSpan extends UnderlineSpan implements MarkdownSpan {
+  @Override
+  public boolean isEquivalentTo(@NonNull MarkdownSpan other) {
+    return other instanceof MarkdownUnderlineSpan;
+  }
+
+  @NonNull
+  @Override
+  public MarkdownSpan copy() {
+    return new MarkdownUnderlineSpan();
+  }
+}
@@ -0,0 +1,49 @@
+package com.expensify.livemarkdown;
+
+import static org.junit.Assert.assertEquals;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+public class JavaMarkdownParserEngineTest {
+  // Also checked against the JS parser run by the worklet engine in src/__tests__/parserParity.test.ts
+  private static final String FIXTURES_PATH = "../src/__tests__/parserParity.fixtures.json";
+
+  @Test
+  public void parsesFixturesLikeTheJsParser() throws Exception {
+    JSONArray fixtures = new JSONArray(new String(Files.readAllBytes(Paths.get(FIXTURES_PATH)), StandardCharsets.UTF_8));
+    JavaMarkdownParserEngine parserEngine = new JavaMarkdownParserEngine();
+    for (int i = 0; i < fixtures.length(); i++) {
+      JSONObject fixture = fixtures.getJSONObject(i);
+      String markdown = fixture.getString("markdown");
+      MarkdownRanges markdownRanges = new MarkdownRanges();
+      parserEngine.parse(markdown, 0, markdownRanges);
+      assertEquals(markdown, toString(fixture.getJSONArray("ranges")), toString(markdownRanges));
+    }
+  }
+
+  private static String toString(JSONArray ranges) throws JSONException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < ranges.length(); i++) {
+      JSONObject range = ranges.getJSONObject(i);
+      sb.append(range.getString("type")).append(':').append(range.getInt("start")).append(':').append(range.getInt("length"))
+        .append(':').append(range.optInt("depth", 1)).append('\n');
+    }
+    return sb.toString();
+  }
+
+  private static String toString(MarkdownRanges markdownRanges) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < markdownRanges.size(); i++) {
+      sb.append(markdownRanges.getType(i)).append(':').append(markdownRanges.getStart(i)).append(':').append(markdownRanges.getLength(i))
+        .append(':').append(markdownRanges.getDepth(i)).append('\n');
+    }
+    return sb.toString();
+  }
+}
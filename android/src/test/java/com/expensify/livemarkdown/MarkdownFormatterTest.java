@@ -0,0 +1,278 @@
+package com.expensify.livemarkdown;
+
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.text.SpannableStringBuilder;
+import android.text.style.LeadingMarginSpan;
+
+import com.expensify.livemarkdown.spans.MarkdownSpan;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+public class MarkdownFormatterTest {
+  private static final int PARSER_ID = 1;
+
+  // Syntax of every built-in range type, so that edits add, remove and move spans of each kind
+  private static final String[] ATOMS = {
+    "word ", "x", "\n", "\n\n", "# ", "## ", "> ", ">> ", "- ", "1. ", "  ", "    ", " ", "abc def ",
+    "*", "**", "***", "_", "~~", "`", "[a](b)", "![a](b)", ":smile: ", "@user ", "@here ", "#room ",
+    "```\ncode\n```\n", "| a | b |\n| --- | --- |\n| 1 | 2 |\n",
+  };
+
+  private Context mContext;
+  private MarkdownParser mMarkdownParser;
+  private MarkdownStyle mMarkdownStyle;
+
+  @Before
+  public void setUp() {
+    MarkdownParser.setParserEngine(PARSER_ID, new JavaMarkdownParserEngine());
+    mContext = RuntimeEnvironment.getApplication();
+    mMarkdownParser = new MarkdownParser(new ReactApplicationContext(mContext));
+    mMarkdownStyle = new MarkdownStyle(createStyleMap(), mContext);
+  }
+
+  @After
+  public void tearDown() {
+    MarkdownParser.setParserEngine(PARSER_ID, null);
+    mMarkdownParser.getParseCache().clear();
+  }
+
+  @Test
+  public void formatAfterEditMatchesFreshFormat() {
+    Random random = new Random(1);
+    for (int document = 0; document < 100; document++) {
+      SpannableStringBuilder ssb = new SpannableStringBuilder(createText(random, 200 + random.nextInt(1500)));
+      MarkdownFormatter markdownFormatter = new MarkdownFormatter(mContext.getAssets());
+      MarkdownLineIndex lineIndex = new MarkdownLineIndex();
+      lineIndex.update(ssb.toString(), -1, 0, 0);
+      markdownFormatter.format(ssb, mMarkdownParser.parse(ssb.toString(), PARSER_ID), mMarkdownStyle, -1, lineIndex);
+      for (int edit = 0; edit < 10; edit++) {
+        int start = random.nextInt(ssb.length() + 1);
+        int end = Math.min(ssb.length(), start + (random.nextInt(3) == 0 ? random.nextInt(3) : 0));
+        String inserted = random.nextInt(4) == 0 ? "" : ATOMS[random.nextInt(ATOMS.length)];
+        ssb.replace(start, end, inserted);
+        int cursorPosition = random.nextInt(3) == 0 ? -1 : start + inserted.length();
+
+        // Keeps spans of the previous format that are still valid and replaces only the rest
+        lineIndex.update(ssb.toString(), start, end - start, inserted.length());
+        markdownFormatter.format(ssb, mMarkdownParser.parse(ssb.toString(), PARSER_ID), mMarkdownStyle, cursorPosition, lineIndex);
+
+        assertTrue(ssb.toString(), hasEquivalentSpans(ssb, formatFresh(ssb.toString(), cursorPosition)));
+      }
+    }
+  }
+
+  @Test
+  public void formatResumedOverSeveralFramesMatchesFreshFormat() {
+    Random random = new Random(1);
+    long resumeCount = 0;
+    for (int document = 0; document < 50; document++) {
+      SpannableStringBuilder ssb = new SpannableStringBuilder(createText(random, 200 + random.nextInt(1500)));
+      MarkdownFormatter markdownFormatter = new MarkdownFormatter(mContext.getAssets());
+      MarkdownLineIndex lineIndex = new MarkdownLineIndex();
+      lineIndex.update(ssb.toString(), -1, 0, 0);
+      markdownFormatter.format(ssb, mMarkdownParser.parse(ssb.toString(), PARSER_ID), mMarkdownStyle, -1, lineIndex);
+      for (int edit = 0; edit < 10; edit++) {
+        int start = random.nextInt(ssb.length() + 1);
+        String inserted = ATOMS[random.nextInt(ATOMS.length)];
+        ssb.replace(start, start, inserted);
+        lineIndex.update(ssb.toString(), start, 0, inserted.length());
+        int cursorPosition = random.nextInt(3) == 0 ? -1 : start + inserted.length();
+        int priorityStart = random.nextInt(ssb.length() + 1);
+        int priorityEnd = Math.min(ssb.length(), priorityStart + random.nextInt(300));
+
+        // A deadline that has passed applies one part per frame
+        markdownFormatter.startFormat(ssb, mMarkdownParser.parse(ssb.toString(), PARSER_ID), mMarkdownStyle, cursorPosition, lineIndex, priorityStart, priorityEnd);
+        while (!markdownFormatter.resumeFormat(0)) {
+          resumeCount++;
+        }
+
+        assertTrue(ssb.toString(), hasEquivalentSpans(ssb, formatFresh(ssb.toString(), cursorPosition)));
+      }
+    }
+    // Otherwise the test would only compare formats applied in one go
+    assertTrue(String.valueOf(resumeCount), resumeCount > 250);
+  }
+
+  @Test
+  public void formatReplacingPartlyAppliedFormatMatchesFreshFormat() {
+    Random random = new Random(1);
+    for (int document = 0; document < 100; document++) {
+      SpannableStringBuilder ssb = new SpannableStringBuilder(createText(random, 200 + random.nextInt(1500)));
+      MarkdownFormatter markdownFormatter = new MarkdownFormatter(mContext.getAssets());
+      MarkdownLineIndex lineIndex = new MarkdownLineIndex();
+      lineIndex.update(ssb.toString(), -1, 0, 0);
+      for (int edit = 0; edit < 10; edit++) {
+        markdownFormatter.startFormat(ssb, mMarkdownParser.parse(ssb.toString(), PARSER_ID), mMarkdownStyle, -1, lineIndex, 0, 0);
+        for (int frame = random.nextInt(5); frame > 0; frame--) {
+          markdownFormatter.resumeFormat(0);
+        }
+
+        // The text changes before the format is fully applied
+        markdownFormatter.cancelFormat();
+        int start = random.nextInt(ssb.length() + 1);
+        String inserted = ATOMS[random.nextInt(ATOMS.length)];
+        ssb.replace(start, start, inserted);
+        lineIndex.update(ssb.toString(), start, 0, inserted.length());
+      }
+      int cursorPosition = random.nextInt(ssb.length() + 1);
+      markdownFormatter.format(ssb, mMarkdownParser.parse(ssb.toString(), PARSER_ID), mMarkdownStyle, cursorPosition, lineIndex);
+
+      assertTrue(ssb.toString(), hasEquivalentSpans(ssb, formatFresh(ssb.toString(), cursorPosition)));
+    }
+  }
+
+  @Test
+  public void formatAfterStyledRegionGrowsMatchesFreshFormat() {
+    Random random = new Random(1);
+    for (int document = 0; document < 100; document++) {
+      String text = createText(random, 200 + random.nextInt(1500));
+      SpannableStringBuilder ssb = new SpannableStringBuilder(text);
+      MarkdownFormatter markdownFormatter = new MarkdownFormatter(mContext.getAssets());
+      MarkdownLineIndex lineIndex = new MarkdownLineIndex();
+      lineIndex.update(text, -1, 0, 0);
+      MarkdownRanges markdownRanges = mMarkdownParser.parse(text, PARSER_ID);
+      int cursorPosition = random.nextInt(text.length() + 1);
+      markdownFormatter.format(ssb, markdownRanges, mMarkdownStyle, -1, lineIndex);
+
+      // Regions are styled as they're scrolled into view, until the whole text is
+      for (int scroll = 0; scroll < 3; scroll++) {
+        int regionStart = random.nextInt(text.length() + 1);
+        markdownFormatter.setStyledRegion(regionStart, Math.min(text.length(), regionStart + random.nextInt(500)));
+        markdownFormatter.format(ssb, markdownRanges, mMarkdownStyle, cursorPosition, lineIndex);
+      }
+      markdownFormatter.setStyledRegion(0, Integer.MAX_VALUE);
+      markdownFormatter.format(ssb, markdownRanges, mMarkdownStyle, cursorPosition, lineIndex);
+
+      assertTrue(text, hasEquivalentSpans(ssb, formatFresh(text, cursorPosition)));
+    }
+  }
+
+  @Test
+  public void cursorUpdateMatchesFreshFormat() {
+    Random random = new Random(1);
+    for (int document = 0; document < 50; document++) {
+      String text = createText(random, 200 + random.nextInt(1500));
+      SpannableStringBuilder ssb = new SpannableStringBuilder(text);
+      MarkdownFormatter markdownFormatter = new MarkdownFormatter(mContext.getAssets());
+      MarkdownLineIndex lineIndex = new MarkdownLineIndex();
+      lineIndex.update(text, -1, 0, 0);
+      MarkdownRanges markdownRanges = mMarkdownParser.parse(text, PARSER_ID);
+      markdownFormatter.format(ssb, markdownRanges, mMarkdownStyle, random.nextInt(text.length() + 1), lineIndex);
+      for (int move = 0; move < 10; move++) {
+        int cursorPosition = random.nextInt(text.length() + 1);
+
+        // Only shows and hides syntax, the text and ranges are the same
+        assertTrue(markdownFormatter.updateCursorPosition(ssb, markdownRanges, mMarkdownStyle, cursorPosition));
+
+        assertTrue(text, hasEquivalentSpans(ssb, formatFresh(text, cursorPosition)));
+      }
+    }
+  }
+
+  private static String createText(Random random, int length) {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < length) {
+      sb.append(ATOMS[random.nextInt(ATOMS.length)]);
+    }
+    return sb.toString();
+  }
+
+  private SpannableStringBuilder formatFresh(String text, int cursorPosition) {
+    SpannableStringBuilder ssb = new SpannableStringBuilder(text);
+    MarkdownLineIndex lineIndex = new MarkdownLineIndex();
+    lineIndex.update(text, -1, 0, 0);
+    new MarkdownFormatter(mContext.getAssets()).format(ssb, mMarkdownParser.parse(text, PARSER_ID), mMarkdownStyle, cursorPosition, lineIndex);
+    return ssb;
+  }
+
+  /**
+   * Returns whether both texts have equivalent Live Markdown spans on the same ranges, in the same
+   * order wherever they overlap. Leading margin spans don't depend on their order.
+   */
+  private static boolean hasEquivalentSpans(SpannableStringBuilder ssb, SpannableStringBuilder otherSsb) {
+    MarkdownSpan[] spans = ssb.getSpans(0, ssb.length(), MarkdownSpan.class);
+    MarkdownSpan[] otherSpans = otherSsb.getSpans(0, otherSsb.length(), MarkdownSpan.class);
+    if (spans.length != otherSpans.length) {
+      return false;
+    }
+    List<MarkdownSpan> unmatchedMarginSpans = new ArrayList<>();
+    for (MarkdownSpan span : otherSpans) {
+      if (span instanceof LeadingMarginSpan) {
+        unmatchedMarginSpans.add(span);
+      }
+    }
+    for (MarkdownSpan span : spans) {
+      if (span instanceof LeadingMarginSpan && !removeEquivalentSpan(unmatchedMarginSpans, span, ssb, otherSsb)) {
+        return false;
+      }
+    }
+    for (int position = 0; position < ssb.length(); position++) {
+      List<MarkdownSpan> coveringSpans = getCoveringSpans(ssb, spans, position);
+      List<MarkdownSpan> otherCoveringSpans = getCoveringSpans(otherSsb, otherSpans, position);
+      if (coveringSpans.size() != otherCoveringSpans.size()) {
+        return false;
+      }
+      for (int i = 0; i < coveringSpans.size(); i++) {
+        if (!isEquivalentSpan(coveringSpans.get(i), ssb, otherCoveringSpans.get(i), otherSsb)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static List<MarkdownSpan> getCoveringSpans(SpannableStringBuilder ssb, MarkdownSpan[] spans, int position) {
+    List<MarkdownSpan> coveringSpans = new ArrayList<>();
+    for (MarkdownSpan span : spans) {
+      if (!(span instanceof LeadingMarginSpan) && ssb.getSpanStart(span) <= position && ssb.getSpanEnd(span) > position) {
+        coveringSpans.add(span);
+      }
+    }
+    return coveringSpans;
+  }
+
+  private static boolean removeEquivalentSpan(List<MarkdownSpan> otherSpans, MarkdownSpan span, SpannableStringBuilder ssb, SpannableStringBuilder otherSsb) {
+    for (int i = 0; i < otherSpans.size(); i++) {
+      if (isEquivalentSpan(span, ssb, otherSpans.get(i), otherSsb)) {
+        otherSpans.remove(i);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isEquivalentSpan(MarkdownSpan span, SpannableStringBuilder ssb, MarkdownSpan otherSpan, SpannableStringBuilder otherSsb) {
+    return span.getClass() == otherSpan.getClass()
+      && span.isEquivalentTo(otherSpan)
+      && ssb.getSpanStart(span) == otherSsb.getSpanStart(otherSpan)
+      && ssb.getSpanEnd(span) == otherSsb.getSpanEnd(otherSpan);
+  }
+
+  private static JavaOnlyMap createStyleMap() {
+    return JavaOnlyMap.of(
+      "syntax", JavaOnlyMap.of("color", (double) 0xFF808080),
+      "link", JavaOnlyMap.of("color", (double) 0xFF0000FF),
+      "h1", JavaOnlyMap.of("fontSize", 25.0),
+      "emoji", JavaOnlyMap.of("fontSize", 20.0, "fontFamily", "sans-serif"),
+      "blockquote", JavaOnlyMap.of("borderColor", (double) 0xFF808080, "borderWidth", 6.0, "marginLeft", 6.0, "paddingLeft", 6.0),
+      "code", JavaOnlyMap.of("fontFamily", "monospace", "fontSize", 20.0, "color", (double) 0xFF000000, "backgroundColor", (double) 0xFFD3D3D3),
+      "pre", JavaOnlyMap.of("fontFamily", "monospace", "fontSize", 20.0, "color", (double) 0xFF000000, "backgroundColor", (double) 0xFFD3D3D3),
+      "mentionHere", JavaOnlyMap.of("color", (double) 0xFF008000, "backgroundColor", (double) 0xFF90EE90, "borderRadius", 5.0),
+      "mentionUser", JavaOnlyMap.of("color", (double) 0xFF0000FF, "backgroundColor", (double) 0xFFADD8E6, "borderRadius", 5.0),
+      "mentionReport", JavaOnlyMap.of("color", (double) 0xFFFF0000, "backgroundColor", (double) 0xFFFFC0CB, "borderRadius", 5.0));
+  }
+}
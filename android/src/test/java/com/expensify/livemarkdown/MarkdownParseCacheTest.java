@@ -0,0 +1,113 @@
+package com.expensify.livemarkdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class MarkdownParseCacheTest {
+  private static final int PARSER_ID = 1;
+
+  // Same length, so that entries have the same size, and keys in different segments
+  private static final String[] TEXTS = {"text 0", "text 1", "text 2", "text 3", "text 4", "text 5", "text 6", "text 7"};
+
+  @Test
+  public void evictsLeastRecentlyUsedEntriesOfAllSegments() {
+    MarkdownParseCache parseCache = new MarkdownParseCache(4 * getEntrySizeBytes(TEXTS[0], new MarkdownRanges()));
+    for (int i = 0; i < 4; i++) {
+      parseCache.put(TEXTS[i], PARSER_ID, new MarkdownRanges());
+    }
+    assertNotNull(parseCache.get(TEXTS[0], PARSER_ID));
+
+    parseCache.put(TEXTS[4], PARSER_ID, new MarkdownRanges());
+    assertNull(parseCache.get(TEXTS[1], PARSER_ID));
+    parseCache.put(TEXTS[5], PARSER_ID, new MarkdownRanges());
+    assertNull(parseCache.get(TEXTS[2], PARSER_ID));
+    parseCache.put(TEXTS[6], PARSER_ID, new MarkdownRanges());
+    assertNull(parseCache.get(TEXTS[3], PARSER_ID));
+    // Used after the others, so it's evicted last
+    parseCache.put(TEXTS[7], PARSER_ID, new MarkdownRanges());
+    assertNull(parseCache.get(TEXTS[0], PARSER_ID));
+
+    for (int i = 4; i < 8; i++) {
+      assertNotNull(TEXTS[i], parseCache.get(TEXTS[i], PARSER_ID));
+    }
+  }
+
+  @Test
+  public void tracksSizeAfterPutReplaceAndClear() {
+    MarkdownParseCache parseCache = new MarkdownParseCache(MarkdownParseCache.DEFAULT_MAX_SIZE_BYTES);
+    assertEquals(0, parseCache.getSizeBytes());
+
+    MarkdownRanges markdownRanges = new MarkdownRanges(1);
+    parseCache.put(TEXTS[0], PARSER_ID, markdownRanges);
+    int entrySizeBytes = getEntrySizeBytes(TEXTS[0], markdownRanges);
+    assertEquals(entrySizeBytes, parseCache.getSizeBytes());
+    parseCache.put(TEXTS[1], PARSER_ID, markdownRanges);
+    assertEquals(2 * entrySizeBytes, parseCache.getSizeBytes());
+
+    // Replacing an entry counts only the new ranges
+    MarkdownRanges largerMarkdownRanges = new MarkdownRanges(100);
+    parseCache.put(TEXTS[0], PARSER_ID, largerMarkdownRanges);
+    assertEquals(entrySizeBytes + getEntrySizeBytes(TEXTS[0], largerMarkdownRanges), parseCache.getSizeBytes());
+    assertSame(largerMarkdownRanges, parseCache.get(TEXTS[0], PARSER_ID));
+
+    parseCache.clear();
+    assertEquals(0, parseCache.getSizeBytes());
+    assertNull(parseCache.get(TEXTS[0], PARSER_ID));
+    assertNull(parseCache.get(TEXTS[1], PARSER_ID));
+  }
+
+  @Test
+  public void evictsWhenMaxSizeShrinks() {
+    int entrySizeBytes = getEntrySizeBytes(TEXTS[0], new MarkdownRanges());
+    MarkdownParseCache parseCache = new MarkdownParseCache(MarkdownParseCache.DEFAULT_MAX_SIZE_BYTES);
+    for (int i = 0; i < 4; i++) {
+      parseCache.put(TEXTS[i], PARSER_ID, new MarkdownRanges());
+    }
+
+    parseCache.setMaxSizeBytes(2 * entrySizeBytes);
+    assertEquals(2 * entrySizeBytes, parseCache.getSizeBytes());
+    assertNull(parseCache.get(TEXTS[0], PARSER_ID));
+    assertNull(parseCache.get(TEXTS[1], PARSER_ID));
+    assertNotNull(parseCache.get(TEXTS[2], PARSER_ID));
+    assertNotNull(parseCache.get(TEXTS[3], PARSER_ID));
+
+    // The most recent entry is kept even if it alone exceeds the budget
+    parseCache.setMaxSizeBytes(0);
+    assertEquals(entrySizeBytes, parseCache.getSizeBytes());
+    assertNotNull(parseCache.get(TEXTS[3], PARSER_ID));
+  }
+
+  @Test
+  public void returnsNullForTextWithSameFingerprint() {
+    // Same hash code and length
+    String text = "Aa";
+    String collidingText = "BB";
+    assertEquals(text.hashCode(), collidingText.hashCode());
+
+    MarkdownParseCache parseCache = new MarkdownParseCache(MarkdownParseCache.DEFAULT_MAX_SIZE_BYTES);
+    MarkdownRanges markdownRanges = new MarkdownRanges();
+    parseCache.put(text, PARSER_ID, markdownRanges);
+    assertNull(parseCache.get(collidingText, PARSER_ID));
+    assertSame(markdownRanges, parseCache.get(text, PARSER_ID));
+
+    // The colliding text replaces the entry instead of adding one
+    MarkdownRanges collidingMarkdownRanges = new MarkdownRanges();
+    parseCache.put(collidingText, PARSER_ID, collidingMarkdownRanges);
+    assertNull(parseCache.get(text, PARSER_ID));
+    assertSame(collidingMarkdownRanges, parseCache.get(collidingText, PARSER_ID));
+    assertEquals(getEntrySizeBytes(collidingText, collidingMarkdownRanges), parseCache.getSizeBytes());
+  }
+
+  /**
+   * Returns the size of a single entry as counted by the cache.
+   */
+  private static int getEntrySizeBytes(String text, MarkdownRanges markdownRanges) {
+    MarkdownParseCache parseCache = new MarkdownParseCache(MarkdownParseCache.DEFAULT_MAX_SIZE_BYTES);
+    parseCache.put(text, PARSER_ID, markdownRanges);
+    return parseCache.getSizeBytes();
+  }
+}
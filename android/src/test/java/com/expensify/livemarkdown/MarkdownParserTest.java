@@ -0,0 +1,114 @@
+package com.expensify.livemarkdown;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Random;
+
+@RunWith(RobolectricTestRunner.class)
+public class MarkdownParserTest {
+  private static final int PARSER_ID = 1;
+
+  // Block and inline syntax that edits can merge or split
+  private static final String[] ATOMS = {
+    "word ", "x", "\n", "\n\n", "# ", "## ", "> ", ">> ", "- ", "1. ", "[x] ", "  ", "    ", "\t", " ", "abc def ",
+    "*", "**", "***", "_", "__", "~", "`", "[a](b)", "![a](b)",
+  };
+
+  // Same with code fences, including indented, unclosed and invalid ones
+  private static final String[] FENCED_ATOMS = {
+    "word ", "x", "\n", "\n\n", "# ", "> ", "- ", "    ", " ", "abc def ", "*", "_", "`",
+    "```\n", "~~~\n", "\n```js\n", "\n   ```\n", "\n    ```\n", "```\r\n", "\n~~~~ x\n",
+  };
+
+  private MarkdownParser mMarkdownParser;
+
+  @Before
+  public void setUp() {
+    MarkdownParser.setParserEngine(PARSER_ID, new JavaMarkdownParserEngine());
+    MarkdownParser.setIncrementalParsingEnabled(true);
+    mMarkdownParser = new MarkdownParser(new ReactApplicationContext(RuntimeEnvironment.getApplication()));
+  }
+
+  @After
+  public void tearDown() {
+    MarkdownParser.setParserEngine(PARSER_ID, null);
+    mMarkdownParser.getParseCache().clear();
+  }
+
+  @Test
+  public void parseIncrementalMatchesFullParse() {
+    assertParseIncrementalMatchesFullParse(ATOMS, 200);
+    // Edits next to delimiters or line breaks need a full parse, but many others must not, otherwise
+    // the test would only compare full parses
+    assertTrue(String.valueOf(mMarkdownParser.getIncrementalParseCount()), mMarkdownParser.getIncrementalParseCount() > 200);
+  }
+
+  @Test
+  public void parseIncrementalMatchesFullParseWithCodeFences() {
+    assertParseIncrementalMatchesFullParse(FENCED_ATOMS, 200);
+    // Fences elsewhere in the text don't turn off incremental parsing
+    assertTrue(String.valueOf(mMarkdownParser.getIncrementalParseCount()), mMarkdownParser.getIncrementalParseCount() > 100);
+  }
+
+  @Test
+  public void parseIncrementalParsesFullyBelowUnclosedFence() {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < 3000) {
+      sb.append("plain words here\n\n");
+    }
+    String prevText = sb + "```\n\n# heading word\n\nmore\n";
+    int editStart = prevText.indexOf("heading") + "heading".length();
+    String text = prevText.substring(0, editStart) + "x" + prevText.substring(editStart);
+
+    MarkdownRanges markdownRanges = mMarkdownParser.parseIncremental(text, PARSER_ID, prevText, mMarkdownParser.parse(prevText, PARSER_ID), editStart, 0, 1);
+    mMarkdownParser.getParseCache().clear();
+    // The heading is code, which only a parse from the fence on can tell
+    assertEquals(toString(mMarkdownParser.parse(text, PARSER_ID)), toString(markdownRanges));
+    assertEquals(0L, mMarkdownParser.getIncrementalParseCount());
+  }
+
+  private void assertParseIncrementalMatchesFullParse(String[] atoms, int documentCount) {
+    Random random = new Random(1);
+    for (int document = 0; document < documentCount; document++) {
+      StringBuilder sb = new StringBuilder();
+      while (sb.length() < 2500) {
+        sb.append(atoms[random.nextInt(atoms.length)]);
+      }
+      String prevText = sb.toString();
+      MarkdownRanges prevMarkdownRanges = mMarkdownParser.parse(prevText, PARSER_ID);
+      for (int edit = 0; edit < 10; edit++) {
+        int editStart = random.nextInt(prevText.length());
+        int removedLength = Math.min(random.nextInt(3), prevText.length() - editStart);
+        String inserted = random.nextBoolean() ? "" : atoms[random.nextInt(atoms.length)];
+        String text = prevText.substring(0, editStart) + inserted + prevText.substring(editStart + removedLength);
+
+        MarkdownRanges markdownRanges = mMarkdownParser.parseIncremental(text, PARSER_ID, prevText, prevMarkdownRanges, editStart, removedLength, inserted.length());
+        // Otherwise the full parse would return the cached incremental result
+        mMarkdownParser.getParseCache().clear();
+        assertEquals(text, toString(mMarkdownParser.parse(text, PARSER_ID)), toString(markdownRanges));
+
+        prevText = text;
+        prevMarkdownRanges = markdownRanges;
+      }
+    }
+  }
+
+  private static String toString(MarkdownRanges markdownRanges) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < markdownRanges.size(); i++) {
+      sb.append(markdownRanges.getType(i)).append(':').append(markdownRanges.getStart(i)).append(':').append(markdownRanges.getEnd(i))
+        .append(':').append(markdownRanges.getDepth(i)).append('\n');
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,9 @@
+import type {MarkdownRange} from '../commonTypes';
+import parseMarkdown from '../parser';
+import fixtures from './parserParity.fixtures.json';
+
+// The same cases are checked against JavaMarkdownParserEngine by JavaMarkdownParserEngineTest on Android,
+// so that both parser engines stay in sync with this parser
+test.each(fixtures)('parses $markdown', ({markdown, ranges}) => {
+  expect(parseMarkdown(markdown)).toEqual(ranges as MarkdownRange[]);
+});